@@ -0,0 +1,200 @@
+package performance_optimisations;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive concurrency limit in front of the server's executor. An exchange is admitted only while fewer than
+ * {@link #limit()} are queued or running; anything beyond that is answered with 503 straight away instead of waiting
+ * in the pool's unbounded queue until the client gives up.
+ * <p>
+ * The limit follows measured latency (gradient style): the recent minimum round trip time stands in for the no-load
+ * latency, and each completion scales the limit by 2 * minRtt / sampleRtt (clamped to [0.5, 1]) plus a small headroom
+ * of sqrt(limit). Once requests queue long enough to double the latency the limit shrinks; while latency holds steady
+ * the headroom lets it probe upwards.
+ */
+public class AdmissionController {
+    private static final double SMOOTHING = 0.2;
+    private static final double TOLERANCE = 2.0; // latency may double over the no-load latency before the limit shrinks
+    private static final int MIN_RTT_WINDOW = 1000;
+    private static final int REJECTION_QUEUE = 64; // exchanges waiting for their 503; beyond that the connection is dropped
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder admitted = new LongAdder();
+    private volatile Executor delegate; // set by gate, where exempt routes of rejected exchanges run
+    private volatile double limit;
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private double minRtt = Double.MAX_VALUE; // guarded by updateLock, like the two fields below
+    private double windowMinRtt = Double.MAX_VALUE;
+    private int samples;
+
+    private static final ThreadLocal<Boolean> REJECTED = ThreadLocal.withInitial(() -> false);
+    private static final ThreadLocal<Boolean> EXEMPT = ThreadLocal.withInitial(() -> false); // ran an unguarded route
+
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    public void release(long rttNanos) {
+        int current = inFlight.getAndDecrement();
+        // a completion that finds another one mid-update skips its sample rather than queueing behind it: the limit
+        // is a smoothed estimate, and every request thread serializing on it would be the bottleneck it guards against
+        if (updateLock.tryLock()) {
+            try {
+                update(rttNanos, current);
+            } finally {
+                updateLock.unlock();
+            }
+        }
+    }
+
+    private void update(long rttNanos, int inFlightAtCompletion) {
+        double rtt = Math.max(1, rttNanos);
+        // windowed minimum: the best latency seen recently stands in for the no-load latency, and the window
+        // rolls over so a permanently slower corpus or machine doesn't leave the limit pinned low
+        windowMinRtt = Math.min(windowMinRtt, rtt);
+        if (++samples >= MIN_RTT_WINDOW) {
+            minRtt = windowMinRtt;
+            windowMinRtt = Double.MAX_VALUE;
+            samples = 0;
+        }
+        double noLoadRtt = Math.min(minRtt, windowMinRtt);
+        double current = limit;
+        if (inFlightAtCompletion < current / 2) {
+            return; // mostly idle: latency says nothing about how much more we could take
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * noLoadRtt / rtt));
+        double target = current * gradient + Math.sqrt(current);
+        double next = current * (1 - SMOOTHING) + target * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    public int limit() {
+        return (int) limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public long shed() {
+        return shed.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "admission.limit=" + limit() + "\nadmission.inFlight=" + inFlight() + "\nadmission.admitted="
+                + admitted.sum() + "\nadmission.shed=" + shed() + "\n";
+    }
+
+    /**
+     * Wraps the server executor: admitted exchanges go to {@code delegate} and are timed from this call (so queueing
+     * counts as latency). Rejected ones wait in a short queue for a separate thread that reads the request head and
+     * routes it: a {@link #guard guarded} route answers 503, an {@link #exempt exempt} one goes back to
+     * {@code delegate}. When that queue is full the exchange is refused outright, which makes the server drop the
+     * connection, so slow or numerous rejected clients can't build up a queue of their own.
+     */
+    public Executor gate(Executor delegate) {
+        ThreadPoolExecutor rejector = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(REJECTION_QUEUE), runnable -> {
+            Thread thread = new Thread(runnable, "admission-rejector");
+            thread.setDaemon(true);
+            return thread;
+        }); // the default AbortPolicy throws once the queue is full
+        this.delegate = delegate;
+        return task -> {
+            if (!tryAcquire()) {
+                rejector.execute(() -> {
+                    REJECTED.set(true);
+                    try {
+                        task.run();
+                    } finally {
+                        REJECTED.set(false);
+                    }
+                });
+                return;
+            }
+            long start = System.nanoTime();
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    if (EXEMPT.get()) { // says nothing about the latency of the guarded routes
+                        EXEMPT.set(false);
+                        inFlight.decrementAndGet();
+                    } else {
+                        release(System.nanoTime() - start);
+                    }
+                }
+            });
+        };
+    }
+
+    /**
+     * Wraps a route that should be shed under overload; the request head is read, then answered with 503.
+     */
+    public HttpHandler guard(HttpHandler handler) {
+        return httpExchange -> {
+            if (REJECTED.get()) {
+                reject(httpExchange);
+                return;
+            }
+            handler.handle(httpExchange);
+        };
+    }
+
+    /**
+     * Wraps a route that is never shed. Served from an exchange the gate turned away, it runs on the server executor,
+     * not on the rejecting thread, and isn't counted as shed; admitted, it isn't taken as a latency sample.
+     */
+    public HttpHandler exempt(HttpHandler handler) {
+        return httpExchange -> {
+            if (!REJECTED.get()) {
+                EXEMPT.set(true);
+                handler.handle(httpExchange);
+                return;
+            }
+            delegate.execute(() -> {
+                try {
+                    handler.handle(httpExchange);
+                } catch (IOException | RuntimeException e) {
+                    httpExchange.close();
+                }
+            });
+        };
+    }
+
+    private void reject(HttpExchange httpExchange) throws IOException {
+        shed.increment();
+        httpExchange.getResponseHeaders().set("Retry-After", "1");
+        httpExchange.sendResponseHeaders(503, -1);
+        httpExchange.close();
+    }
+}
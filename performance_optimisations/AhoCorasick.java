@@ -0,0 +1,111 @@
+package performance_optimisations;
+
+import java.util.Arrays;
+
+/**
+ * Aho-Corasick automaton over a set of byte patterns, compiled into a full DFA (256 transitions per state) so the scan
+ * is one table lookup per corpus byte no matter how many patterns there are. Rather than walking output links on every
+ * byte, the scan only counts how often each state is entered; a final pass pushes those visits down the failure links,
+ * since entering a state also means matching everything its failure chain matches.
+ */
+public class AhoCorasick {
+    private final int[] delta; // state * 256 + byte -> next state
+    private final int[] fail;
+    private final int[] bfsOrder;
+    private final int[] terminal; // pattern -> the state that spells it, -1 for an empty pattern
+    private final int states;
+    private final int maxLength;
+
+    public AhoCorasick(byte[][] patterns) {
+        long capacity = 1;
+        int longest = 0;
+        for (byte[] pattern : patterns) {
+            capacity += pattern.length;
+            longest = Math.max(longest, pattern.length);
+        }
+        if (capacity > Integer.MAX_VALUE / 256) {
+            throw new IllegalArgumentException("Patterns too long for a transition table: " + (capacity - 1) + " bytes");
+        }
+        maxLength = longest;
+        int[] transitions = new int[(int) capacity * 256]; // 0 doubles as "no child" while building the trie
+        terminal = new int[patterns.length];
+        int created = 1;
+        for (int p = 0; p < patterns.length; p++) {
+            if (patterns[p].length == 0) {
+                terminal[p] = -1;
+                continue;
+            }
+            int state = 0;
+            for (byte b : patterns[p]) {
+                int slot = state * 256 + (b & 0xFF);
+                if (transitions[slot] == 0) {
+                    transitions[slot] = created++;
+                }
+                state = transitions[slot];
+            }
+            terminal[p] = state; // duplicate patterns share a state, and so a count
+        }
+        states = created;
+        delta = Arrays.copyOf(transitions, states * 256);
+        fail = new int[states];
+        bfsOrder = new int[states];
+
+        // breadth-first, so a state's failure target always has its row completed before the state itself
+        int head = 0;
+        int tail = 0;
+        bfsOrder[tail++] = 0;
+        while (head < tail) {
+            int state = bfsOrder[head++];
+            for (int b = 0; b < 256; b++) {
+                int slot = state * 256 + b;
+                int child = delta[slot];
+                int fallback = state == 0 ? 0 : delta[fail[state] * 256 + b];
+                if (child != 0) {
+                    fail[child] = fallback;
+                    bfsOrder[tail++] = child;
+                } else {
+                    delta[slot] = fallback;
+                }
+            }
+        }
+    }
+
+    public int maxLength() {
+        return maxLength;
+    }
+
+    public long[] count(Corpus corpus) {
+        return counts(visits(corpus, 0, corpus.length()));
+    }
+
+    /**
+     * Counts how often each state is entered by bytes in [from, to). Matches are attributed to the byte they end on,
+     * and the automaton is warmed up on the bytes just before {@code from}, so adjacent ranges can be summed.
+     */
+    long[] visits(Corpus corpus, long from, long to) {
+        long[] visits = new long[states];
+        int state = 0;
+        for (long i = Math.max(0, from - maxLength); i < from; i++) {
+            state = delta[state * 256 + (corpus.get(i) & 0xFF)];
+        }
+        for (long i = from; i < to; i++) {
+            state = delta[state * 256 + (corpus.get(i) & 0xFF)];
+            visits[state]++;
+        }
+        return visits;
+    }
+
+    // turns (summed) state visits into a count per pattern
+    long[] counts(long[] visits) {
+        long[] total = visits.clone();
+        for (int i = states - 1; i > 0; i--) {
+            int state = bfsOrder[i];
+            total[fail[state]] += total[state];
+        }
+        long[] counts = new long[terminal.length];
+        for (int p = 0; p < terminal.length; p++) {
+            counts[p] = terminal[p] < 0 ? 0 : total[terminal[p]];
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,165 @@
+package performance_optimisations;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Paths;
+
+/**
+ * Measures bytes allocated per request inside {@link ThroughPutHttpServer.WordCountHandler}, with and without
+ * {@code --allocation-free}. The handler is driven directly with a reusable stub exchange, so the numbers cover only
+ * what the handler itself allocates and not the JDK server's own per-exchange objects.
+ */
+public class AllocationBenchmark {
+    private static final String INPUT_FILE = "./performance_optimisations/resources/war_and_peace.txt";
+    private static final String[] QUERIES = {"word=Pierre", "word=Natasha", "word=the", "word=Andrew", "word=Moscow"};
+    private static final int WARMUP_REQUESTS = 100_000;
+    private static final int MEASURED_REQUESTS = 200_000;
+    private static final int SCAN_REQUESTS = 200; // a full scan per request, so far fewer of those
+
+    public static void main(String[] args) throws Exception {
+        Corpus corpus = Corpus.map(Paths.get(args.length > 0 ? args[0] : INPUT_FILE));
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        for (ThroughPutHttpServer.SearchMode mode : ThroughPutHttpServer.SearchMode.values()) {
+            for (boolean allocationFree : new boolean[]{false, true}) {
+                ThroughPutHttpServer.ServerOptions options = new ThroughPutHttpServer.ServerOptions();
+                options.mode = mode;
+                options.allocationFree = allocationFree;
+                ThroughPutHttpServer.WordCountHandler handler = ThroughPutHttpServer.createHandler(corpus, options);
+                StubExchange[] exchanges = new StubExchange[QUERIES.length];
+                for (int i = 0; i < QUERIES.length; i++) {
+                    exchanges[i] = new StubExchange(URI.create("/search?" + QUERIES[i]));
+                }
+                int requests = mode == ThroughPutHttpServer.SearchMode.SCAN ? SCAN_REQUESTS : MEASURED_REQUESTS;
+                int warmup = mode == ThroughPutHttpServer.SearchMode.SCAN ? SCAN_REQUESTS : WARMUP_REQUESTS;
+
+                for (int i = 0; i < warmup; i++) {
+                    handler.handle(exchanges[i % exchanges.length]); // let the JIT compile (and escape-analyse) the path
+                }
+                long threadId = Thread.currentThread().getId();
+                long before = threads.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                for (int i = 0; i < requests; i++) {
+                    handler.handle(exchanges[i % exchanges.length]);
+                }
+                long nanos = System.nanoTime() - start;
+                long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+                System.out.printf("%-12s %-15s %8.1f bytes/request, %,10.0f ns/request%n", mode,
+                        allocationFree ? "allocation-free" : "regular", (double) allocated / requests, (double) nanos / requests);
+            }
+        }
+    }
+
+    /**
+     * Just enough of an exchange for the handler: a fixed URI and a response stream that discards everything.
+     */
+    private static class StubExchange extends HttpExchange {
+        private final URI uri;
+        private final Headers requestHeaders = new Headers();
+        private final Headers responseHeaders = new Headers();
+        private final OutputStream responseBody = new OutputStream() { // unlike nullOutputStream(), usable after close()
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        private int responseCode = -1;
+
+        StubExchange(URI uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return uri;
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return "GET";
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return responseBody;
+        }
+
+        @Override
+        public void sendResponseHeaders(int code, long length) {
+            responseCode = code;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return null;
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+        }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return null;
+        }
+    }
+}
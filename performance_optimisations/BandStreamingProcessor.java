@@ -0,0 +1,233 @@
+package performance_optimisations;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Recolors an image too large for the heap by streaming it through in horizontal bands: each band is decoded on its
+ * own with {@link ImageReadParam#setSourceRegion}, recolored on the shared tile pool and written out before the next
+ * one is read. Only band-sized buffers (decoded, recolored and, if the reader can't decode to int-packed RGB, a
+ * converted copy) are ever held, and they are reused from band to band, so memory is bounded by the band size rather
+ * than the image size.
+ * <p>
+ * The output is written progressively: a TIFF is laid out empty up front and filled band by band with
+ * {@link ImageWriter#replacePixels}, when the installed TIFF writer supports that; anything else is written as a
+ * binary PPM, one row at a time. How cheap a band is to decode depends on the format: striped or tiled TIFFs seek
+ * straight to the band, while a baseline JPEG reader has to decode (and discard) everything above it.
+ */
+public class BandStreamingProcessor {
+    private static final long BAND_BYTES = 64L << 20; // all band buffers together, at most
+    private static final int BUFFER_BYTES_PER_PIXEL = 12; // decoded, converted and result, 4 bytes each at worst
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    public interface BandSink extends Closeable {
+        void write(BufferedImage band, int top, int rows) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: <input image> <output .tif or .ppm> [--band-rows=N] [--threads=N]");
+        }
+        int bandRows = 0;
+        int threads = THREADS;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--band-rows=")) {
+                bandRows = Integer.parseInt(args[i].substring("--band-rows=".length()));
+            } else if (args[i].startsWith("--threads=")) {
+                threads = Integer.parseInt(args[i].substring("--threads=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        long start = System.nanoTime();
+        int bands = recolor(new File(args[0]), new File(args[1]), bandRows, threads);
+        System.out.printf(Locale.ROOT, "%d bands in %.1f ms%n", bands, (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Recolors {@code input} into {@code output} band by band and returns the number of bands. {@code bandRows} of 0
+     * picks bands of about {@value #BAND_BYTES} bytes of buffers, or an eighth of the heap if that is less.
+     */
+    public static int recolor(File input, File output, int bandRows, int threads) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            if (in == null) {
+                throw new IOException("Cannot open " + input);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("No reader for " + input);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, false, true); // not seek-forward-only: every band is a new read of image 0
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int rows = bandRows > 0 ? Math.min(bandRows, height) : defaultBandRows(width, height);
+
+                // the buffers are allocated once; the reader decodes every band into the same one
+                BufferedImage decoded = intRGBType(reader).createBufferedImage(width, rows);
+                BufferedImage converted = OptimizingLatencyImageProcessing.isIntRGB(decoded) ? decoded
+                        : OptimizingLatencyImageProcessing.intRGBFor(decoded, width, rows);
+                BufferedImage result = new BufferedImage(width, rows, BufferedImage.TYPE_INT_RGB);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setDestination(decoded);
+
+                int bands = 0;
+                try (BandSink sink = sink(output, width, height, result)) {
+                    for (int top = 0; top < height; top += rows, bands++) {
+                        int bandHeight = Math.min(rows, height - top);
+                        param.setSourceRegion(new Rectangle(0, top, width, bandHeight));
+                        reader.read(0, param);
+                        recolorBand(decoded, converted, result, width, bandHeight, threads);
+                        sink.write(result, top, bandHeight);
+                    }
+                }
+                return bands;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static int defaultBandRows(int width, int height) {
+        long budget = Math.min(BAND_BYTES, Runtime.getRuntime().maxMemory() / 8);
+        return (int) Math.max(1, Math.min(height, budget / ((long) BUFFER_BYTES_PER_PIXEL * width)));
+    }
+
+    // an int-packed RGB destination if the reader can decode into one, which saves converting every band
+    private static ImageTypeSpecifier intRGBType(ImageReader reader) throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        ImageTypeSpecifier first = types.next();
+        for (ImageTypeSpecifier type = first; ; type = types.next()) {
+            if (OptimizingLatencyImageProcessing.isIntRGB(type.createBufferedImage(1, 1))) {
+                return type;
+            }
+            if (!types.hasNext()) {
+                return first;
+            }
+        }
+    }
+
+    private static void recolorBand(BufferedImage decoded, BufferedImage converted, BufferedImage result, int width, int rows,
+                                    int threads) {
+        if (converted != decoded) {
+            OptimizingLatencyImageProcessing.copyPixels(decoded, converted);
+        }
+        TileScheduler.run(TileScheduler.pool(threads), width, rows, 8, (left, top, tileWidth, tileHeight) ->
+                OptimizingLatencyImageProcessing.recolorImage(converted, result, left, top, tileWidth, tileHeight));
+    }
+
+    static BandSink sink(File output, int width, int height, BufferedImage band) throws IOException {
+        String name = output.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".tif") || name.endsWith(".tiff")) {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+            if (writers.hasNext()) {
+                ImageWriter writer = writers.next();
+                ImageOutputStream out = ImageIO.createImageOutputStream(output);
+                writer.setOutput(out);
+                if (writer.canWriteEmpty()) {
+                    writer.prepareWriteEmpty(null, ImageTypeSpecifier.createFromRenderedImage(band), width, height, null, null, null);
+                    if (writer.canReplacePixels(0)) { // only answerable once there is an image to replace pixels in
+                        return new ReplacePixelsSink(writer, out, width);
+                    }
+                    writer.endWriteEmpty();
+                }
+                writer.dispose();
+                out.close();
+                output.delete();
+            }
+            System.err.println("TIFF writer can't replace pixels, writing a PPM instead");
+            output = new File(output.getPath().replaceFirst("(?i)\\.tiff?$", ".ppm"));
+        } else if (!name.endsWith(".ppm")) { // PPM bytes under another format's name would only fail to open later
+            throw new IllegalArgumentException("Output must be a .tif, .tiff or .ppm file: " + output);
+        }
+        return new PpmSink(output, width, height);
+    }
+
+    /**
+     * Fills an empty image of the full size, written when the sink was opened, band by band.
+     */
+    private static class ReplacePixelsSink implements BandSink {
+        private final ImageWriter writer;
+        private final ImageOutputStream out;
+        private final int width;
+
+        ReplacePixelsSink(ImageWriter writer, ImageOutputStream out, int width) {
+            this.writer = writer;
+            this.out = out;
+            this.width = width;
+        }
+
+        @Override
+        public void write(BufferedImage band, int top, int rows) throws IOException {
+            writer.prepareReplacePixels(0, new Rectangle(0, top, width, rows));
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setSourceRegion(new Rectangle(0, 0, width, rows));
+            param.setDestinationOffset(new Point(0, top));
+            writer.replacePixels(band.getRaster(), param);
+            writer.endReplacePixels();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writer.endWriteEmpty();
+            } finally {
+                writer.dispose();
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Binary PPM (P6): a short text header and then raw RGB rows, so every band can be appended as it is done.
+     */
+    private static class PpmSink implements BandSink {
+        private final OutputStream out;
+        private final byte[] row;
+
+        PpmSink(File output, int width, int height) throws IOException {
+            this.out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16);
+            this.row = new byte[3 * width];
+            out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        public void write(BufferedImage band, int top, int rows) throws IOException {
+            int[] pixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData(); // our own TYPE_INT_RGB buffer
+            int width = row.length / 3;
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    row[3 * x] = (byte) (pixels[i] >> 16);
+                    row[3 * x + 1] = (byte) (pixels[i] >> 8);
+                    row[3 * x + 2] = (byte) pixels[i];
+                }
+                out.write(row);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package performance_optimisations;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recolors every image in a directory with decode, process and encode as three stages, each with its own worker
+ * threads, joined by bounded queues. While one image is being recolored the next is already being decoded and the
+ * previous one encoded, so the CPU-bound recolor no longer waits on ImageIO. The bounded queues keep a fast decoder
+ * from filling the heap with decoded images the later stages can't keep up with.
+ * <p>
+ * Each stage reports its busy time (summed over its workers) and the time its workers spent blocked on a queue, which
+ * shows which stage is the bottleneck and whether giving it more workers would help.
+ */
+public class BatchImagePipeline {
+    private static final int WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    public static class Options {
+        public File inputDirectory;
+        public File outputDirectory = new File("./out");
+        public int decoders = WORKERS;
+        public int processors = WORKERS;
+        public int encoders = WORKERS;
+        public int queueCapacity = 4; // decoded images held between two stages, per queue
+
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            List<String> paths = new ArrayList<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--")) {
+                    paths.add(arg);
+                    continue;
+                }
+                int separator = arg.indexOf('=');
+                String name = separator < 0 ? arg.substring(2) : arg.substring(2, separator);
+                String value = separator < 0 ? "" : arg.substring(separator + 1);
+                switch (name) {
+                    case "decoders":
+                        options.decoders = Integer.parseInt(value);
+                        break;
+                    case "processors":
+                        options.processors = Integer.parseInt(value);
+                        break;
+                    case "encoders":
+                        options.encoders = Integer.parseInt(value);
+                        break;
+                    case "queue":
+                        options.queueCapacity = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (paths.isEmpty() || paths.size() > 2) {
+                throw new IllegalArgumentException("Usage: <input directory> [output directory] [--decoders=N] "
+                        + "[--processors=N] [--encoders=N] [--queue=N]");
+            }
+            options.inputDirectory = new File(paths.get(0));
+            if (paths.size() > 1) {
+                options.outputDirectory = new File(paths.get(1));
+            }
+            return options;
+        }
+    }
+
+    /**
+     * Busy and blocked time of one stage, summed over its workers.
+     */
+    public static class StageStats {
+        final String name;
+        final int workers;
+        final LongAdder images = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder blockedNanos = new LongAdder();
+
+        StageStats(String name, int workers) {
+            this.name = name;
+            this.workers = workers;
+        }
+
+        @Override
+        public String toString() {
+            long count = Math.max(1, images.sum());
+            return String.format(Locale.ROOT, "%-8s %2d workers, %4d images, %3d failed, busy %8.1f ms (%6.1f ms/image), blocked %8.1f ms",
+                    name, workers, images.sum(), failures.sum(), busyNanos.sum() / 1e6, busyNanos.sum() / 1e6 / count,
+                    blockedNanos.sum() / 1e6);
+        }
+    }
+
+    private static class Item {
+        final File source;
+        final BufferedImage image;
+
+        Item(File source, BufferedImage image) {
+            this.source = source;
+            this.image = image;
+        }
+    }
+
+    private static final Item END = new Item(null, null); // one per downstream worker once a stage has finished
+
+    private final Options options;
+    private final StageStats decode;
+    private final StageStats process;
+    private final StageStats encode;
+
+    public BatchImagePipeline(Options options) {
+        // a stage without workers never passes the end marker on, and the whole batch would wait for it forever
+        if (options.decoders < 1 || options.processors < 1 || options.encoders < 1 || options.queueCapacity < 1) {
+            throw new IllegalArgumentException("Decoders, processors, encoders and queue capacity must all be at least 1");
+        }
+        this.options = options;
+        this.decode = new StageStats("decode", options.decoders);
+        this.process = new StageStats("process", options.processors);
+        this.encode = new StageStats("encode", options.encoders);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        BatchImagePipeline pipeline = new BatchImagePipeline(options);
+        long start = System.nanoTime();
+        int written = pipeline.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        for (StageStats stage : pipeline.stages()) {
+            System.out.println(stage);
+        }
+        System.out.printf(Locale.ROOT, "%d images in %.2f s, %.2f images/s%n", written, seconds, written / seconds);
+    }
+
+    public List<StageStats> stages() {
+        return Arrays.asList(decode, process, encode);
+    }
+
+    /**
+     * Processes every image file in the input directory and returns how many were written.
+     */
+    public int run() throws IOException, InterruptedException {
+        File[] files = options.inputDirectory.listFiles(File::isFile);
+        if (files == null) {
+            throw new IOException("Not a directory: " + options.inputDirectory);
+        }
+        Arrays.sort(files);
+        if (!options.outputDirectory.isDirectory() && !options.outputDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + options.outputDirectory);
+        }
+
+        BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(options.queueCapacity);
+        BlockingQueue<Item> processed = new ArrayBlockingQueue<>(options.queueCapacity);
+        AtomicInteger next = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger decodersLeft = new AtomicInteger(options.decoders);
+        for (int i = 0; i < options.decoders; i++) {
+            threads.add(worker("decoder-" + i, threads, failure, () -> {
+                for (int f; (f = next.getAndIncrement()) < files.length; ) {
+                    long begin = System.nanoTime();
+                    BufferedImage image = decode(files[f]);
+                    decode.busyNanos.add(System.nanoTime() - begin);
+                    if (image != null) {
+                        put(decoded, new Item(files[f], image), decode);
+                    }
+                }
+                finish(decodersLeft, decoded, options.processors, decode);
+            }));
+        }
+        AtomicInteger processorsLeft = new AtomicInteger(options.processors);
+        for (int i = 0; i < options.processors; i++) {
+            threads.add(worker("processor-" + i, threads, failure, () -> {
+                for (Item item; (item = take(decoded, process)) != END; ) {
+                    long begin = System.nanoTime();
+                    BufferedImage result = new BufferedImage(item.image.getWidth(), item.image.getHeight(), BufferedImage.TYPE_INT_RGB);
+                    OptimizingLatencyImageProcessing.recolorSingleThreaded(item.image, result); // the stage itself is the parallelism
+                    process.busyNanos.add(System.nanoTime() - begin);
+                    process.images.increment();
+                    put(processed, new Item(item.source, result), process);
+                }
+                finish(processorsLeft, processed, options.encoders, process);
+            }));
+        }
+        for (int i = 0; i < options.encoders; i++) {
+            threads.add(worker("encoder-" + i, threads, failure, () -> {
+                for (Item item; (item = take(processed, encode)) != END; ) {
+                    long begin = System.nanoTime();
+                    encode(item);
+                    encode.busyNanos.add(System.nanoTime() - begin);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new IOException("Batch stopped", failure.get());
+        }
+        return (int) encode.images.sum();
+    }
+
+    private BufferedImage decode(File file) {
+        try {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) { // no reader for the format: not an image, skip it
+                return null;
+            }
+            decode.images.increment();
+            return image;
+        } catch (IOException | RuntimeException e) { // some readers throw unchecked exceptions on corrupt files
+            decode.failures.increment();
+            System.err.println("Failed to decode " + file + ": " + e);
+            return null;
+        }
+    }
+
+    private void encode(Item item) {
+        String name = item.source.getName();
+        int dot = name.lastIndexOf('.');
+        String format = dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        if (!ImageIO.getImageWritersBySuffix(format).hasNext()) {
+            format = "png";
+            name += ".png"; // keep the old extension, so a.tga and a.bmp can't both become a.png
+        }
+        try {
+            if (ImageIO.write(item.image, format, new File(options.outputDirectory, name))) {
+                encode.images.increment();
+            } else {
+                encode.failures.increment();
+            }
+        } catch (IOException | RuntimeException e) { // a writer may reject an image it can't represent
+            encode.failures.increment();
+            System.err.println("Failed to encode " + name + ": " + e);
+        }
+    }
+
+    // the last worker of a stage to finish tells every worker of the next one
+    private static void finish(AtomicInteger workersLeft, BlockingQueue<Item> queue, int downstream, StageStats stage) {
+        if (workersLeft.decrementAndGet() == 0) {
+            for (int i = 0; i < downstream; i++) {
+                put(queue, END, stage);
+            }
+        }
+    }
+
+    private static void put(BlockingQueue<Item> queue, Item item, StageStats stage) {
+        long begin = System.nanoTime();
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        stage.blockedNanos.add(System.nanoTime() - begin);
+    }
+
+    private static Item take(BlockingQueue<Item> queue, StageStats stage) {
+        long begin = System.nanoTime();
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            stage.blockedNanos.add(System.nanoTime() - begin);
+        }
+    }
+
+    // a worker that dies (say of an OutOfMemoryError) stops all the others, rather than leaving them blocked on a queue
+    private static Thread worker(String name, List<Thread> threads, AtomicReference<Throwable> failure, Runnable body) {
+        return new Thread(() -> {
+            try {
+                body.run();
+            } catch (Throwable e) {
+                if (failure.compareAndSet(null, e)) {
+                    threads.forEach(Thread::interrupt);
+                }
+            }
+        }, "batch-" + name);
+    }
+}
@@ -0,0 +1,48 @@
+package performance_optimisations;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+/**
+ * Megapixels per second of {@link ConvolutionEngine} for Gaussian blurs of growing kernel size, and for sharpen and
+ * edge detection, on all cores.
+ */
+public class ConvolutionBenchmark {
+    private static final String SOURCE_FILE = "./performance_optimisations/resources/many-flowers.jpg";
+    private static final int[] RADII = {1, 2, 4, 7, 12};
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    public interface Operation {
+        void apply(BufferedImage source, BufferedImage result);
+    }
+
+    public static void main(String[] args) throws Exception {
+        BufferedImage source = OptimizingLatencyImageProcessing.toIntRGB(ImageIO.read(new File(args.length > 0 ? args[0] : SOURCE_FILE)));
+        BufferedImage result = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ConvolutionEngine engine = new ConvolutionEngine(threads);
+        System.out.printf("%dx%d image, %d threads%n", source.getWidth(), source.getHeight(), threads);
+
+        for (int radius : RADII) {
+            report("blur " + (2 * radius + 1) + "x" + (2 * radius + 1), source, result, (s, r) -> engine.blur(s, r, radius));
+        }
+        report("sharpen 5x5", source, result, (s, r) -> engine.sharpen(s, r, 2, 1f));
+        report("edges 3x3", source, result, engine::detectEdges);
+    }
+
+    private static void report(String name, BufferedImage source, BufferedImage result, Operation operation) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            operation.apply(source, result);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            operation.apply(source, result);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double megapixels = (double) source.getWidth() * source.getHeight() / 1e6;
+        System.out.printf("%-14s %8.1f ms, %7.1f megapixels/s%n", name, best / 1e6, megapixels / (best / 1e9));
+    }
+}
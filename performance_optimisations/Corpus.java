@@ -0,0 +1,138 @@
+package performance_optimisations;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only byte view of the text being served. Files are memory-mapped rather than copied onto the heap, and
+ * split into 1 GB mappings so corpora larger than a single {@link ByteBuffer} (2 GB) can still be addressed.
+ */
+public final class Corpus {
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final byte[] EMPTY_TAIL = new byte[0];
+
+    private final ByteBuffer[] segments; // every segment but the last is exactly SEGMENT_SIZE bytes
+    private final long baseLength; // bytes covered by the segments
+    private final byte[] tail; // text appended since the corpus was mapped, kept on the heap
+    private final long length;
+
+    private Corpus(ByteBuffer[] segments, long baseLength, byte[] tail) {
+        this.segments = segments;
+        this.baseLength = baseLength;
+        this.tail = tail;
+        this.length = baseLength + tail.length;
+    }
+
+    public static Corpus map(Path path) throws IOException {
+        return map(path, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Maps only bytes [from, to) of the file (to is capped at the file size), e.g. one shard of a larger corpus.
+     */
+    public static Corpus map(Path path, long from, long to) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = Math.max(0, Math.min(to, channel.size()) - from);
+            ByteBuffer[] segments = new ByteBuffer[(int) Math.max(1, (size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long offset = i * SEGMENT_SIZE;
+                // the mapping stays valid after the channel is closed
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, from + offset, Math.min(SEGMENT_SIZE, size - offset));
+            }
+            return new Corpus(segments, size, EMPTY_TAIL);
+        }
+    }
+
+    public static Corpus wrap(byte[] bytes) {
+        return new Corpus(new ByteBuffer[]{ByteBuffer.wrap(bytes)}, bytes.length, EMPTY_TAIL);
+    }
+
+    /**
+     * Returns a new corpus with {@code bytes} added at the end; this one is left untouched, so readers holding it keep
+     * a consistent view. The mapped part is shared, only the appended tail is copied.
+     */
+    public Corpus append(byte[] bytes) {
+        if (tail.length + (long) bytes.length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Appended text is limited to 2 GB; reload the corpus from a file instead");
+        }
+        byte[] newTail = Arrays.copyOf(tail, tail.length + bytes.length);
+        System.arraycopy(bytes, 0, newTail, tail.length, bytes.length);
+        return new Corpus(segments, baseLength, newTail);
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public byte get(long index) {
+        if (index >= baseLength) {
+            return tail[(int) (index - baseLength)];
+        }
+        return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    /**
+     * A copy of bytes [from, to), which must span less than 2 GB.
+     */
+    public byte[] bytes(long from, long to) {
+        byte[] bytes = new byte[(int) (to - from)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = get(from + i);
+        }
+        return bytes;
+    }
+
+    public long count(byte[] pattern) {
+        return count(pattern, 0, length);
+    }
+
+    /**
+     * Counts (possibly overlapping) occurrences of {@code pattern} that start in [from, to) using Boyer-Moore-Horspool.
+     * A match may extend past {@code to}, so adjacent ranges can be counted independently and summed.
+     */
+    public long count(byte[] pattern, long from, long to) {
+        return count(pattern, pattern.length, shiftTable(pattern, pattern.length, new int[256]), from, to);
+    }
+
+    /**
+     * The same count for the first {@code m} bytes of {@code pattern}, with a caller-supplied {@link #shiftTable},
+     * so a caller that reuses its buffers can scan without allocating.
+     */
+    public long count(byte[] pattern, int m, int[] shift, long from, long to) {
+        if (m == 0) {
+            return 0;
+        }
+        byte lastByte = pattern[m - 1];
+        long end = Math.min(to, length - m + 1); // exclusive bound for where a match may start
+        long count = 0;
+        long position = from;
+        while (position < end) {
+            byte b = get(position + m - 1);
+            if (b == lastByte) {
+                int j = m - 2;
+                while (j >= 0 && get(position + j) == pattern[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    count++;
+                }
+            }
+            position += shift[b & 0xFF];
+        }
+        return count;
+    }
+
+    static int[] shiftTable(byte[] pattern, int m, int[] shift) {
+        Arrays.fill(shift, Math.max(m, 1));
+        for (int i = 0; i < m - 1; i++) {
+            shift[pattern[i] & 0xFF] = m - 1 - i; // distance from the last occurrence of the byte to the pattern's end
+        }
+        return shift;
+    }
+}
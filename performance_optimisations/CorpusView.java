@@ -0,0 +1,105 @@
+package performance_optimisations;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Immutable snapshot of everything a request reads: the corpus, the indexes built over it for the current search
+ * mode, and the result cache for exactly this text. {@link ThroughPutHttpServer.WordCountHandler} swaps whole views
+ * atomically, so a request that picked up a view sees that view and nothing else, however long it runs.
+ */
+public class CorpusView {
+    final Corpus corpus;
+    final WordIndex wordIndex;
+    final SuffixArrayIndex suffixArray;
+    final SearchResultCache cache;
+    final long generation;
+    // computed on first use, on the shared pool rather than under a lock on the request thread: most servers never get asked
+    private final AtomicReference<CompletableFuture<TopWords>> topWords = new AtomicReference<>();
+    // likewise; once asked for, it is rebuilt by append, so the appended view is swapped in with it ready
+    private final AtomicReference<CompletableFuture<PositionalIndex>> positionalIndex = new AtomicReference<>();
+
+    private CorpusView(Corpus corpus, WordIndex wordIndex, SuffixArrayIndex suffixArray, SearchResultCache cache, long generation) {
+        this.corpus = corpus;
+        this.wordIndex = wordIndex;
+        this.suffixArray = suffixArray;
+        this.cache = cache;
+        this.generation = generation;
+    }
+
+    public static CorpusView build(Corpus corpus, ThroughPutHttpServer.SearchMode mode, int cacheSize, long generation) {
+        WordIndex wordIndex = mode == ThroughPutHttpServer.SearchMode.INDEX ? WordIndex.build(corpus) : null; // tokenized once, not per request
+        SuffixArrayIndex suffixArray = mode == ThroughPutHttpServer.SearchMode.SUFFIX_ARRAY
+                ? SuffixArrayIndex.build(corpus, ParallelSearch.pool()) : null;
+        return new CorpusView(corpus, wordIndex, suffixArray, newCache(cacheSize), generation);
+    }
+
+    // a view over indexes that already exist, e.g. mapped from an IndexSnapshot
+    static CorpusView of(Corpus corpus, WordIndex wordIndex, SuffixArrayIndex suffixArray, int cacheSize, long generation) {
+        return new CorpusView(corpus, wordIndex, suffixArray, newCache(cacheSize), generation);
+    }
+
+    /**
+     * The view after appending {@code bytes}. The word index is updated incrementally from the old one; the suffix
+     * array has no cheap incremental update, so it is rebuilt (in parallel), as is the positional index if phrases have
+     * been asked for. Cached counts are stale and start over. Runs on the caller's thread, before the view is published.
+     */
+    public CorpusView append(byte[] bytes, int cacheSize) {
+        Corpus appended = corpus.append(bytes);
+        WordIndex newWordIndex = wordIndex != null ? wordIndex.withAppended(appended, corpus.length()) : null;
+        SuffixArrayIndex newSuffixArray = suffixArray != null ? SuffixArrayIndex.build(appended, ParallelSearch.pool()) : null;
+        CorpusView view = new CorpusView(appended, newWordIndex, newSuffixArray, newCache(cacheSize), generation + 1);
+        TopWords currentTopWords = ready(topWords.get());
+        if (currentTopWords != null) { // merges a sketch of just the new text
+            view.topWords.set(CompletableFuture.completedFuture(
+                    currentTopWords.withAppended(appended, corpus.length(), ParallelSearch.pool())));
+        }
+        if (positionalIndex.get() != null) {
+            view.positionalIndex.set(CompletableFuture.completedFuture(PositionalIndex.build(appended)));
+        }
+        return view;
+    }
+
+    PositionalIndex positionalIndex() {
+        return computeOnce(positionalIndex, () -> PositionalIndex.build(corpus));
+    }
+
+    // null until the first phrase query has been answered
+    PositionalIndex positionalIndexIfBuilt() {
+        return ready(positionalIndex.get());
+    }
+
+    TopWords topWords(TopWords.Settings settings) {
+        return computeOnce(topWords, () -> TopWords.build(corpus, settings, ParallelSearch.pool()));
+    }
+
+    // the first caller starts the build on the shared pool; every caller, that one included, waits for the same result
+    private static <T> T computeOnce(AtomicReference<CompletableFuture<T>> slot, Supplier<T> build) {
+        CompletableFuture<T> future = slot.get();
+        if (future == null) {
+            CompletableFuture<T> started = new CompletableFuture<>();
+            future = slot.compareAndExchange(null, started);
+            if (future == null) {
+                future = started;
+                ParallelSearch.pool().execute(() -> {
+                    try {
+                        started.complete(build.get());
+                    } catch (RuntimeException | Error e) {
+                        slot.compareAndSet(started, null); // let a later request try again
+                        started.completeExceptionally(e);
+                    }
+                });
+            }
+        }
+        return future.join();
+    }
+
+    private static <T> T ready(CompletableFuture<T> future) {
+        return future != null && future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+    }
+
+    private static SearchResultCache newCache(int cacheSize) {
+        return cacheSize > 0 ? new SearchResultCache(cacheSize) : null;
+    }
+}
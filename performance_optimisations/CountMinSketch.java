@@ -0,0 +1,93 @@
+package performance_optimisations;
+
+/**
+ * Count-Min sketch over 64-bit keys: {@code depth} rows of {@code width} counters, each key adding to one counter per
+ * row. An estimate is the smallest of its counters, so it never under-counts and over-counts by at most
+ * e / width * (total count) with probability 1 - e^-depth - whatever the number of distinct keys.
+ * <p>
+ * Row positions come from fixed seeds rather than random ones, so any two sketches of the same shape hash keys to
+ * the same counters and can be {@link #merge merged} by adding their tables.
+ */
+public class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final int mask;
+    private final long[] table; // row-major: depth rows of width counters
+    private long total;
+
+    public CountMinSketch(int width, int depth) {
+        checkSize(width, depth);
+        this.width = width;
+        this.depth = depth;
+        this.mask = width - 1;
+        this.table = new long[width * depth];
+    }
+
+    static void checkSize(int width, int depth) {
+        if (width < 1 || Integer.bitCount(width) != 1 || depth < 1 || (long) width * depth > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Width must be a power of two and depth at least 1, with width x depth "
+                    + "fitting in an array, got " + width + " x " + depth);
+        }
+    }
+
+    private CountMinSketch(CountMinSketch other) {
+        this.width = other.width;
+        this.depth = other.depth;
+        this.mask = other.mask;
+        this.table = other.table.clone();
+        this.total = other.total;
+    }
+
+    public CountMinSketch copy() {
+        return new CountMinSketch(this);
+    }
+
+    // negative counts are allowed as long as no key's true count goes below zero (e.g. taking back a split word)
+    public void add(long key, long count) {
+        for (int row = 0; row < depth; row++) {
+            table[row * width + index(key, row)] += count;
+        }
+        total += count;
+    }
+
+    public long estimate(long key) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, table[row * width + index(key, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Adds {@code other}'s counts to this sketch, as if every key added there had been added here.
+     */
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Can't merge a " + other.width + " x " + other.depth
+                    + " sketch into a " + width + " x " + depth + " one");
+        }
+        for (int i = 0; i < table.length; i++) {
+            table[i] += other.table[i];
+        }
+        total += other.total;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    private int index(long key, int row) {
+        long h = key + (row + 1) * 0x9E3779B97F4A7C15L; // a different odd offset per row, then the murmur3 finalizer
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return (int) (h ^ (h >>> 33)) & mask;
+    }
+}
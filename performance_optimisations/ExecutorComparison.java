@@ -0,0 +1,133 @@
+package performance_optimisations;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs the same slow-client workload against {@link ThroughPutHttpServer} once per {@link ThroughPutHttpServer.ExecutorKind}
+ * and reports throughput and p99 latency. Each client dribbles its request head out in two writes with a pause in
+ * between; the JDK server reads the head on an executor thread, so a slow client pins a pool thread for the pause.
+ */
+public class ExecutorComparison {
+    private static final String INPUT_FILE = "./performance_optimisations/resources/war_and_peace.txt";
+    private static final int PORT = 8002;
+    private static final int CLIENTS = 64;
+    private static final long CLIENT_PAUSE_MILLIS = 20;
+    private static final long DURATION_MILLIS = 10000;
+
+    public static void main(String[] args) throws Exception {
+        ThroughPutHttpServer.enableTcpNoDelay();
+        Path inputFile = Paths.get(args.length > 0 ? args[0] : INPUT_FILE);
+        Corpus corpus = Corpus.map(inputFile);
+        String[] words = WordCountBenchmark.sampleWords(new String(Files.readAllBytes(inputFile)), 1000);
+
+        for (ThroughPutHttpServer.ExecutorKind kind : ThroughPutHttpServer.ExecutorKind.values()) {
+            ThroughPutHttpServer.ServerOptions options = new ThroughPutHttpServer.ServerOptions();
+            options.port = PORT;
+            options.executor = kind;
+            HttpServer server;
+            try {
+                server = ThroughPutHttpServer.startServer(corpus, options);
+            } catch (UnsupportedOperationException e) {
+                System.out.printf("%-13s skipped: %s%n", kind, e.getMessage());
+                continue;
+            }
+            try {
+                long[] latencies = run(words);
+                Arrays.sort(latencies);
+                System.out.printf("%-13s throughput: %,.0f requests/sec, p99: %.1f ms%n", kind,
+                        latencies.length * 1000.0 / DURATION_MILLIS, percentile(latencies, 0.99) / 1e6);
+            } finally {
+                server.stop(0);
+                ((ExecutorService) server.getExecutor()).shutdown();
+            }
+        }
+    }
+
+    private static long[] run(String[] words) throws InterruptedException {
+        long[][] results = new long[CLIENTS][];
+        List<Thread> threads = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + DURATION_MILLIS;
+        for (int i = 0; i < CLIENTS; i++) {
+            final int client = i;
+            threads.add(new Thread(() -> results[client] = slowClient(words, deadline)));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join(); // join makes each client's results visible here
+        }
+
+        return Arrays.stream(results).flatMapToLong(Arrays::stream).toArray();
+    }
+
+    // one keep-alive connection; returns the latency of every completed request in nanos
+    private static long[] slowClient(String[] words, long deadline) {
+        long[] latencies = new long[1024];
+        int count = 0;
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.currentTimeMillis() < deadline) {
+                String word = words[random.nextInt(words.length)];
+                long start = System.nanoTime();
+                out.write(("GET /search?word=" + word + " HTTP/1.1\r\nHost: loc").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                Thread.sleep(CLIENT_PAUSE_MILLIS);
+                out.write("alhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                readResponse(in);
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = System.nanoTime() - start;
+            }
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static void readResponse(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed by server");
+            }
+            head.append((char) b);
+        }
+        int contentLength = 0;
+        for (String line : head.toString().split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        in.readNBytes(contentLength);
+    }
+
+    static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,125 @@
+package performance_optimisations;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A chain of {@link PixelFilter}s applied in one pass over memory. Rather than running each filter over the whole
+ * image in turn (one full read and write of the image per stage), the pipeline walks each tile a block of pixels at a
+ * time: the first stage reads the block from the source into the result, and every later stage rewrites that block
+ * in place while it is still in L1. Adjacent per-channel lookup stages are merged into a single table when the
+ * pipeline is built. Tiles are spread over a shared pool by {@link TileScheduler}.
+ */
+public class FilterPipeline implements PixelFilter {
+    private static final int BLOCK_PIXELS = 1024; // 4 KB of ints: comfortably inside L1 while every stage runs
+
+    private final List<PixelFilter> stages;
+
+    private FilterPipeline(List<PixelFilter> stages) {
+        this.stages = stages;
+    }
+
+    public static FilterPipeline of(PixelFilter... filters) {
+        FilterPipeline pipeline = new FilterPipeline(Collections.emptyList());
+        for (PixelFilter filter : filters) {
+            pipeline = pipeline.then(filter);
+        }
+        return pipeline;
+    }
+
+    /**
+     * A new pipeline with {@code filter} as its last stage; this one is unchanged.
+     */
+    public FilterPipeline then(PixelFilter filter) {
+        List<PixelFilter> next = new ArrayList<>(stages);
+        if (filter instanceof FilterPipeline) {
+            for (PixelFilter stage : ((FilterPipeline) filter).stages) {
+                append(next, stage);
+            }
+        } else {
+            append(next, filter);
+        }
+        return new FilterPipeline(Collections.unmodifiableList(next));
+    }
+
+    private static void append(List<PixelFilter> stages, PixelFilter filter) {
+        int last = stages.size() - 1;
+        if (last >= 0 && stages.get(last) instanceof ChannelLookup && filter instanceof ChannelLookup) {
+            stages.set(last, ((ChannelLookup) stages.get(last)).then((ChannelLookup) filter));
+        } else {
+            stages.add(filter);
+        }
+    }
+
+    public int stages() {
+        return stages.size();
+    }
+
+    @Override
+    public int filter(int rgb) {
+        for (PixelFilter stage : stages) {
+            rgb = stage.filter(rgb);
+        }
+        return rgb;
+    }
+
+    @Override
+    public void filter(int[] source, int sourceIndex, int[] result, int resultIndex, int length) {
+        if (stages.isEmpty()) {
+            System.arraycopy(source, sourceIndex, result, resultIndex, length);
+            return;
+        }
+        for (int block = 0; block < length; block += BLOCK_PIXELS) {
+            int blockLength = Math.min(BLOCK_PIXELS, length - block);
+            stages.get(0).filter(source, sourceIndex + block, result, resultIndex + block, blockLength);
+            for (int s = 1; s < stages.size(); s++) {
+                stages.get(s).filter(result, resultIndex + block, result, resultIndex + block, blockLength);
+            }
+        }
+    }
+
+    /**
+     * Filters {@code source} into {@code result} (same size) on a shared pool of {@code numberOfThreads} workers.
+     * Images that aren't int-packed RGB are converted once; a result of another type is filled through a copy. A
+     * source without alpha gives opaque pixels.
+     */
+    public void apply(BufferedImage source, BufferedImage result, int numberOfThreads) {
+        BufferedImage from = OptimizingLatencyImageProcessing.toIntRGB(source);
+        BufferedImage to = OptimizingLatencyImageProcessing.isIntRGB(result) ? result
+                : OptimizingLatencyImageProcessing.intRGBFor(from, result.getWidth(), result.getHeight());
+        // the top byte of a TYPE_INT_RGB pixel isn't alpha (it's usually 0) and the stages pass it through, so it is
+        // only made opaque where the result has alpha to show it
+        boolean opaque = !from.getColorModel().hasAlpha() && to.getColorModel().hasAlpha();
+        int width = Math.min(from.getWidth(), to.getWidth());
+        int height = Math.min(from.getHeight(), to.getHeight());
+        TileScheduler.run(TileScheduler.pool(numberOfThreads), width, height, 8,
+                (left, top, tileWidth, tileHeight) -> applyToTile(from, to, opaque, left, top, tileWidth, tileHeight));
+        if (to != result) {
+            OptimizingLatencyImageProcessing.copyPixels(to, result);
+        }
+    }
+
+    private void applyToTile(BufferedImage source, BufferedImage result, boolean opaque, int left, int top, int width, int height) {
+        WritableRaster sourceRaster = source.getRaster();
+        WritableRaster resultRaster = result.getRaster();
+        int[] sourcePixels = ((DataBufferInt) sourceRaster.getDataBuffer()).getData();
+        int[] resultPixels = ((DataBufferInt) resultRaster.getDataBuffer()).getData();
+        int sourceStride = ((SinglePixelPackedSampleModel) sourceRaster.getSampleModel()).getScanlineStride();
+        int resultStride = ((SinglePixelPackedSampleModel) resultRaster.getSampleModel()).getScanlineStride();
+        for (int y = top; y < top + height; y++) {
+            int resultIndex = OptimizingLatencyImageProcessing.offset(resultRaster, left, y, resultStride);
+            filter(sourcePixels, OptimizingLatencyImageProcessing.offset(sourceRaster, left, y, sourceStride),
+                    resultPixels, resultIndex, width);
+            if (opaque) {
+                for (int i = resultIndex; i < resultIndex + width; i++) {
+                    resultPixels[i] |= 0xFF000000;
+                }
+            }
+        }
+    }
+}
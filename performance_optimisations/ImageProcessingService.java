@@ -0,0 +1,210 @@
+package performance_optimisations;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A long-lived service that filters images on a fixed set of worker threads, for callers (a server, a batch job) that
+ * have many images in flight at once. Threads are started once, not per image, and however many images are submitted
+ * the CPU is never asked to run more than {@code numberOfThreads} filters at a time.
+ * <p>
+ * Every submitted image is cut into bands of rows. Images take turns round-robin, one band at a time: a worker takes
+ * the image at the head of the run queue, claims its next band and puts the image back at the tail before filtering
+ * the band. So a small image submitted behind a huge one waits for a few bands, not for the whole huge image.
+ */
+public class ImageProcessingService implements AutoCloseable {
+    private final BlockingQueue<Job> runQueue = new LinkedBlockingQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicInteger queuedImages = new AtomicInteger(); // submitted, not yet finished
+    private final AtomicLong queuedBands = new AtomicLong(); // not yet claimed by a worker
+    private final LongAdder completedImages = new LongAdder();
+    private final LongAdder completedPixels = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    private volatile boolean closed;
+
+    private static class Job {
+        final BufferedImage source;
+        final BufferedImage result;
+        final PixelFilter filter;
+        final int bandRows;
+        final int bands;
+        final AtomicInteger remaining; // bands not yet finished
+        final CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+        int nextBand; // only touched by the worker that has just taken the job off the run queue
+
+        Job(BufferedImage source, PixelFilter filter) {
+            this.source = source;
+            this.result = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+            this.filter = filter;
+            // a band of source and result rows fits the cache, like a TileScheduler tile
+            this.bandRows = (int) Math.max(1, Math.min(source.getHeight(), TileScheduler.cacheBytes() / (8L * source.getWidth())));
+            this.bands = (source.getHeight() + bandRows - 1) / bandRows;
+            this.remaining = new AtomicInteger(bands);
+        }
+    }
+
+    public ImageProcessingService(int numberOfThreads) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is needed, got " + numberOfThreads);
+        }
+        for (int i = 0; i < numberOfThreads; i++) {
+            Thread worker = new Thread(this::work, "image-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Recolors {@code image} with the fastest available kernel.
+     */
+    public CompletableFuture<BufferedImage> submit(BufferedImage image) {
+        return submit(image, PixelFilter.recolor());
+    }
+
+    /**
+     * Filters {@code image} into a new TYPE_INT_RGB image, which the returned future completes with. Cancelling the
+     * future stops the bands that haven't started yet. Throws {@link RejectedExecutionException} once closed.
+     */
+    public CompletableFuture<BufferedImage> submit(BufferedImage image, PixelFilter filter) {
+        if (closed) {
+            throw new RejectedExecutionException("Image processing service is closed");
+        }
+        Job job = new Job(OptimizingLatencyImageProcessing.toIntRGB(image), filter);
+        if (job.bands == 0) {
+            job.future.complete(job.result);
+            return job.future;
+        }
+        queuedImages.incrementAndGet();
+        queuedBands.addAndGet(job.bands);
+        runQueue.add(job);
+        // close() may have drained the queue between the check above and the add; then nobody else will ever see the
+        // job, so it is taken back here (unless close got to it first and has already failed it)
+        if (closed && runQueue.remove(job)) {
+            queuedImages.decrementAndGet();
+            queuedBands.addAndGet(-job.bands);
+            throw new RejectedExecutionException("Image processing service is closed");
+        }
+        return job.future;
+    }
+
+    private void work() {
+        while (!closed) {
+            Job job;
+            try {
+                job = runQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job.future.isDone()) { // cancelled or failed: drop the bands nobody has claimed
+                queuedBands.addAndGet(-(job.bands - job.nextBand));
+                finish(job, job.bands - job.nextBand);
+                continue;
+            }
+            int band = job.nextBand++;
+            queuedBands.decrementAndGet();
+            if (job.nextBand < job.bands) {
+                runQueue.add(job); // back of the line: the other images get a band each before this one's next
+            }
+            try {
+                filterBand(job, band);
+            } catch (RuntimeException | Error e) {
+                job.future.completeExceptionally(e);
+            }
+            finish(job, 1);
+        }
+    }
+
+    private void finish(Job job, int bands) {
+        if (bands > 0 && job.remaining.addAndGet(-bands) == 0) {
+            queuedImages.decrementAndGet();
+            if (job.future.complete(job.result)) {
+                completedImages.increment();
+                completedPixels.add((long) job.source.getWidth() * job.source.getHeight());
+            }
+        }
+    }
+
+    private static void filterBand(Job job, int band) {
+        WritableRaster sourceRaster = job.source.getRaster();
+        WritableRaster resultRaster = job.result.getRaster();
+        int[] sourcePixels = ((DataBufferInt) sourceRaster.getDataBuffer()).getData();
+        int[] resultPixels = ((DataBufferInt) resultRaster.getDataBuffer()).getData();
+        int sourceStride = ((SinglePixelPackedSampleModel) sourceRaster.getSampleModel()).getScanlineStride();
+        int resultStride = ((SinglePixelPackedSampleModel) resultRaster.getSampleModel()).getScanlineStride();
+        int width = job.source.getWidth();
+        int top = band * job.bandRows;
+        int bottom = Math.min(job.source.getHeight(), top + job.bandRows);
+        for (int y = top; y < bottom; y++) {
+            job.filter.filter(sourcePixels, OptimizingLatencyImageProcessing.offset(sourceRaster, 0, y, sourceStride),
+                    resultPixels, OptimizingLatencyImageProcessing.offset(resultRaster, 0, y, resultStride), width);
+        }
+    }
+
+    /**
+     * Images submitted and not yet finished.
+     */
+    public int queueDepth() {
+        return queuedImages.get();
+    }
+
+    /**
+     * Bands of those images that no worker has started on yet.
+     */
+    public long queuedBands() {
+        return queuedBands.get();
+    }
+
+    public long completedImages() {
+        return completedImages.sum();
+    }
+
+    public double imagesPerSecond() {
+        return completedImages.sum() / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    public double megapixelsPerSecond() {
+        return completedPixels.sum() / 1e6 / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "service.workers=%d%nservice.queueDepth=%d%nservice.queuedBands=%d%n"
+                        + "service.completed=%d%nservice.imagesPerSecond=%.2f%nservice.megapixelsPerSecond=%.1f%n",
+                workers.size(), queueDepth(), queuedBands(), completedImages(), imagesPerSecond(), megapixelsPerSecond());
+    }
+
+    /**
+     * Stops the workers; images still queued complete exceptionally.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        workers.forEach(Thread::interrupt);
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Job job; (job = runQueue.poll()) != null; ) {
+            queuedImages.decrementAndGet();
+            queuedBands.addAndGet(-(job.bands - job.nextBand));
+            job.future.completeExceptionally(new RejectedExecutionException("Image processing service is closed"));
+        }
+    }
+}
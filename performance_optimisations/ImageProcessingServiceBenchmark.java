@@ -0,0 +1,75 @@
+package performance_optimisations;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One large image followed by a burst of small ones, submitted at once. Compares how long the small ones wait when
+ * images are recolored one after another (each with {@code recolorMultiThreaded}) against the round-robin bands of
+ * {@link ImageProcessingService}.
+ */
+public class ImageProcessingServiceBenchmark {
+    private static final String SOURCE_FILE = "./performance_optimisations/resources/many-flowers.jpg";
+    private static final int SMALL_IMAGES = 32;
+    private static final int SMALL_SIDE = 256;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        BufferedImage large = OptimizingLatencyImageProcessing.toIntRGB(ImageIO.read(new File(args.length > 0 ? args[0] : SOURCE_FILE)));
+        if (large.getWidth() <= SMALL_SIDE || large.getHeight() <= SMALL_SIDE) {
+            throw new IllegalArgumentException("Usage: [input image larger than " + SMALL_SIDE + "x" + SMALL_SIDE
+                    + ", the small images are cut from it], got " + large.getWidth() + "x" + large.getHeight());
+        }
+        List<BufferedImage> small = new ArrayList<>();
+        for (int i = 0; i < SMALL_IMAGES; i++) {
+            small.add(large.getSubimage((i * 97) % (large.getWidth() - SMALL_SIDE), (i * 131) % (large.getHeight() - SMALL_SIDE), SMALL_SIDE, SMALL_SIDE));
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        try (ImageProcessingService service = new ImageProcessingService(threads)) {
+            for (int round = 0; round < ROUNDS; round++) {
+                double[] oneAfterAnother = new double[SMALL_IMAGES];
+                long start = System.nanoTime();
+                recolor(large, threads);
+                for (int i = 0; i < SMALL_IMAGES; i++) {
+                    recolor(small.get(i), threads);
+                    oneAfterAnother[i] = (System.nanoTime() - start) / 1e6;
+                }
+
+                double[] roundRobin = new double[SMALL_IMAGES];
+                CompletableFuture<?>[] futures = new CompletableFuture<?>[SMALL_IMAGES + 1];
+                long submitted = System.nanoTime();
+                futures[0] = service.submit(large);
+                for (int i = 0; i < SMALL_IMAGES; i++) {
+                    int index = i;
+                    futures[i + 1] = service.submit(small.get(i)).thenRun(() -> roundRobin[index] = (System.nanoTime() - submitted) / 1e6);
+                }
+                CompletableFuture.allOf(futures).join();
+                System.out.printf(Locale.ROOT, "round %d: small image latency, median/max ms: one after another %.1f/%.1f, service %.1f/%.1f%n",
+                        round, median(oneAfterAnother), max(oneAfterAnother), median(roundRobin), max(roundRobin));
+            }
+            System.out.print(service);
+        }
+    }
+
+    private static void recolor(BufferedImage image, int threads) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        OptimizingLatencyImageProcessing.recolorMultiThreaded(image, result, threads);
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static double max(double[] values) {
+        return Arrays.stream(values).max().orElse(0);
+    }
+}
@@ -0,0 +1,257 @@
+package performance_optimisations;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * On-disk copy of the indexes in a {@link CorpusView}, so a restarted server can memory-map them instead of
+ * re-tokenizing the corpus and re-sorting its suffixes.
+ * <p>
+ * Layout (little endian): a header with the corpus length and a fingerprint of its content, then the word dictionary
+ * sorted by byte order and front-coded (each entry is the length shared with the previous word, the remaining bytes
+ * and the count, all lengths and counts as varints), then the suffix array as raw ints, then a CRC32C of everything
+ * after the header. Loading checks that CRC, decodes the dictionary into a fresh {@link WordIndex} (one pass over a
+ * few hundred KB for a typical vocabulary) and uses the mapped suffix array in place, so startup reads the text and
+ * the snapshot once, sequentially, and allocates nothing proportional to either.
+ */
+public final class IndexSnapshot {
+    private static final long MAGIC = 0x50414e5344524f57L; // "WORDSNAP"
+    private static final int VERSION = 4; // 2: words split at Unicode letters and digits; 3: the fingerprint covers all the text; 4: CRC trailer
+    private static final int HEADER_SIZE = 28;
+    private static final int FINGERPRINT_CHUNK = 1 << 16;
+    private static final int ABSENT = -1;
+
+    private IndexSnapshot() {
+    }
+
+    /**
+     * Returns the view for {@code corpus} from the snapshot at {@code path} if it was written for the same text and
+     * has the indexes {@code mode} needs; otherwise builds the view and (re)writes the snapshot.
+     */
+    public static CorpusView loadOrBuild(Path path, Corpus corpus, ThroughPutHttpServer.SearchMode mode, int cacheSize) throws IOException {
+        if (Files.exists(path)) {
+            CorpusView view = load(path, corpus, mode, cacheSize);
+            if (view != null) {
+                return view;
+            }
+        }
+        CorpusView view = CorpusView.build(corpus, mode, cacheSize, 0);
+        if (view.wordIndex != null || view.suffixArray != null) {
+            write(path, view);
+        }
+        return view;
+    }
+
+    /**
+     * Maps the snapshot, or returns null if it belongs to other text, is from another version, lacks an index that
+     * {@code mode} needs or is truncated or corrupt.
+     */
+    public static CorpusView load(Path path, Corpus corpus, ThroughPutHttpServer.SearchMode mode, int cacheSize) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return read(mapped.order(ByteOrder.LITTLE_ENDIAN), corpus, mode, cacheSize);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            return null; // cut short or garbled: the caller rebuilds, as for any other mismatch
+        }
+    }
+
+    private static CorpusView read(ByteBuffer buffer, Corpus corpus, ThroughPutHttpServer.SearchMode mode, int cacheSize) {
+        if (buffer.remaining() < HEADER_SIZE + 12 || buffer.getLong() != MAGIC || buffer.getInt() != VERSION
+                || buffer.getLong() != corpus.length()) {
+            return null;
+        }
+        long fingerprint = buffer.getLong();
+        int end = buffer.limit() - 4;
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(end));
+        if ((int) crc.getValue() != buffer.getInt(end) || fingerprint != fingerprint(corpus)) {
+            return null;
+        }
+        buffer.limit(end);
+        WordIndex wordIndex = null;
+        int words = buffer.getInt();
+        if (words < 0 && words != ABSENT || words > buffer.remaining() / 3) {
+            return null; // every entry takes at least three bytes, so a larger count can only be garbage
+        }
+        if (words != ABSENT) {
+            wordIndex = readDictionary(buffer, words);
+        }
+        SuffixArrayIndex suffixArray = null;
+        buffer.position((buffer.position() + 3) & ~3); // the ints start 4-byte aligned
+        int suffixes = buffer.getInt();
+        if (suffixes != ABSENT && (suffixes != corpus.length() || suffixes > buffer.remaining() / 4)) {
+            return null;
+        }
+        if (suffixes != ABSENT) {
+            IntBuffer ints = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            suffixArray = new SuffixArrayIndex(corpus, ints.limit(suffixes).slice());
+        }
+        if (mode == ThroughPutHttpServer.SearchMode.INDEX && wordIndex == null
+                || mode == ThroughPutHttpServer.SearchMode.SUFFIX_ARRAY && suffixArray == null) {
+            return null;
+        }
+        return CorpusView.of(corpus, mode == ThroughPutHttpServer.SearchMode.INDEX ? wordIndex : null,
+                mode == ThroughPutHttpServer.SearchMode.SUFFIX_ARRAY ? suffixArray : null, cacheSize, 0);
+    }
+
+    /**
+     * Writes the view's indexes to {@code path}, going through a temporary file so a crash never leaves a torn
+     * snapshot behind.
+     */
+    public static void write(Path path, CorpusView view) throws IOException {
+        Corpus corpus = view.corpus;
+        if (view.suffixArray != null && view.suffixArray.size() > (Integer.MAX_VALUE - (1 << 20)) / 4) {
+            throw new IllegalArgumentException("Snapshots of suffix arrays are limited to corpora of 512 MB");
+        }
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        ByteBuffer fixed = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        fixed.putLong(MAGIC).putInt(VERSION).putLong(corpus.length()).putLong(fingerprint(corpus));
+        header.write(fixed.array(), 0, fixed.position());
+        if (view.wordIndex != null) {
+            byte[][] vocabulary = vocabulary(view.wordIndex);
+            header.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(vocabulary.length).array(), 0, 4);
+            writeDictionary(header, vocabulary, view.wordIndex);
+        } else {
+            header.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(ABSENT).array(), 0, 4);
+        }
+        while (header.size() % 4 != 0) {
+            header.write(0);
+        }
+
+        byte[] head = header.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(head, HEADER_SIZE, head.length - HEADER_SIZE);
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(head));
+            ByteBuffer chunk = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            if (view.suffixArray == null) {
+                chunk.putInt(ABSENT);
+            } else {
+                IntBuffer suffixes = view.suffixArray.suffixes();
+                chunk.putInt(suffixes.remaining());
+                while (suffixes.hasRemaining()) {
+                    if (chunk.remaining() < 4) {
+                        chunk.flip();
+                        crc.update(chunk.duplicate());
+                        writeFully(channel, chunk);
+                        chunk.clear();
+                    }
+                    chunk.putInt(suffixes.get());
+                }
+            }
+            chunk.flip();
+            crc.update(chunk.duplicate());
+            writeFully(channel, chunk);
+            writeFully(channel, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, (int) crc.getValue()));
+            channel.force(false);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // in unsigned byte order, so neighbours share long prefixes
+    private static byte[][] vocabulary(WordIndex wordIndex) {
+        return wordIndex.words().stream().sorted(Arrays::compareUnsigned).toArray(byte[][]::new);
+    }
+
+    private static void writeDictionary(ByteArrayOutputStream out, byte[][] vocabulary, WordIndex wordIndex) {
+        byte[] previous = new byte[0];
+        for (byte[] word : vocabulary) {
+            int shared = 0;
+            while (shared < previous.length && shared < word.length && previous[shared] == word[shared]) {
+                shared++;
+            }
+            writeVarint(out, shared);
+            writeVarint(out, word.length - shared);
+            out.write(word, shared, word.length - shared);
+            writeVarint(out, wordIndex.count(word));
+            previous = word;
+        }
+    }
+
+    private static WordIndex readDictionary(ByteBuffer buffer, int words) {
+        WordIndex index = new WordIndex(words);
+        byte[] word = new byte[64];
+        int length = 0;
+        for (int i = 0; i < words; i++) {
+            long shared = readVarint(buffer);
+            long suffix = readVarint(buffer);
+            if (shared > length || suffix > buffer.remaining()) {
+                throw new IllegalArgumentException("Corrupt dictionary entry " + i);
+            }
+            length = (int) (shared + suffix);
+            if (length > word.length) {
+                word = Arrays.copyOf(word, Math.max(word.length * 2, length));
+            }
+            buffer.get(word, (int) shared, (int) suffix); // the shared prefix is still in place from the previous word
+            index.put(word, length, readVarint(buffer));
+        }
+        return index;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * FNV-1a over all of the text, eight bytes at a time. Anything less lets a same-length edit through, and the
+     * mapped suffix array, sorted for the old text, would then answer with wrong counts; a sequential pass over the
+     * text still costs far less than re-sorting its suffixes.
+     */
+    static long fingerprint(Corpus corpus) {
+        long length = corpus.length();
+        long h = 0xcbf29ce484222325L;
+        for (long start = 0; start < length; start += FINGERPRINT_CHUNK) {
+            ByteBuffer chunk = ByteBuffer.wrap(corpus.bytes(start, Math.min(length, start + FINGERPRINT_CHUNK)))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (chunk.remaining() >= 8) {
+                h = (h ^ chunk.getLong()) * 0x100000001b3L;
+            }
+            while (chunk.hasRemaining()) {
+                h = (h ^ (chunk.get() & 0xFF)) * 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+}
@@ -0,0 +1,82 @@
+package performance_optimisations;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-bucketed latency histogram in the spirit of HdrHistogram: every power of two is split into 32 linear
+ * sub-buckets, so any recorded value is reported within ~3% using a fixed 2K-slot array, whatever the range.
+ * Recording is a single atomic increment and safe from any thread.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int SLOTS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+
+    public void record(long value) {
+        counts.incrementAndGet(index(Math.max(0, value)));
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Smallest recorded bucket value such that at least {@code quantile} of all values are at or below it.
+     */
+    public long percentile(double quantile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(SLOTS - 1);
+    }
+
+    public long max() {
+        for (int i = SLOTS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return highestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < SLOTS; i++) {
+            counts.addAndGet(i, other.counts.get(i));
+        }
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BUCKET_BITS here
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // the largest value that maps to the slot, so percentiles never under-report
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = ((long) (SUB_BUCKETS + index % SUB_BUCKETS)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,228 @@
+package performance_optimisations;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for {@link ThroughPutHttpServer}. Requests are sent on a fixed schedule whether or not
+ * earlier ones have come back, and each latency is measured from the time the request was *supposed* to go out.
+ * A closed-loop client that waits for responses quietly sends less when the server stalls and never records the
+ * requests it didn't send (coordinated omission); measuring from the intended start charges every stall to every
+ * request it delayed, which is what real users would have seen.
+ * <p>
+ * Words are drawn from a Zipf distribution over the corpus vocabulary, ranked by frequency. By default the generator
+ * starts a server per executor kind x search mode and prints one line per configuration; with {@code --target=} it
+ * drives an already running server instead.
+ */
+public class LoadGenerator {
+    private static final String INPUT_FILE = "./performance_optimisations/resources/war_and_peace.txt";
+    private static final int PORT = 8003;
+
+    private final URI target;
+    private final String[] vocabulary; // most frequent first
+    private final double[] cumulative; // Zipf CDF over the vocabulary ranks
+    private final HttpClient client;
+    private final Semaphore outstanding;
+    private final int maxOutstanding;
+
+    public LoadGenerator(URI target, String[] vocabulary, double zipfExponent, int maxOutstanding) {
+        this.target = target;
+        this.vocabulary = vocabulary;
+        this.cumulative = new double[vocabulary.length];
+        double sum = 0;
+        for (int rank = 0; rank < vocabulary.length; rank++) {
+            sum += 1 / Math.pow(rank + 1, zipfExponent);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < vocabulary.length; rank++) {
+            cumulative[rank] /= sum;
+        }
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        this.outstanding = new Semaphore(maxOutstanding);
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    public static class Result {
+        public final LatencyHistogram latencies = new LatencyHistogram();
+        public final LongAdder errors = new LongAdder();
+        public long durationNanos;
+
+        @Override
+        public String toString() {
+            return String.format("throughput: %,8.0f req/s, p50: %8.2f ms, p99: %8.2f ms, p99.9: %8.2f ms, max: %8.2f ms, errors: %d",
+                    latencies.count() * 1e9 / durationNanos, latencies.percentile(0.5) / 1e6, latencies.percentile(0.99) / 1e6,
+                    latencies.percentile(0.999) / 1e6, latencies.max() / 1e6, errors.sum());
+        }
+    }
+
+    /**
+     * Sends {@code ratePerSecond} requests per second for {@code durationMillis}, then waits for stragglers.
+     */
+    public Result run(double ratePerSecond, long durationMillis) throws InterruptedException {
+        Result result = new Result();
+        long intervalNanos = (long) (1e9 / ratePerSecond);
+        long requests = (long) (ratePerSecond * durationMillis / 1000);
+        long start = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long i = 0; i < requests; i++) {
+            long intended = start + i * intervalNanos;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            outstanding.acquire(); // if this blocks we fall behind schedule, and the lag shows up in the latencies
+            HttpRequest request = HttpRequest.newBuilder(target.resolve("/search?word=" + nextWord(random)))
+                    .timeout(Duration.ofSeconds(30)).build();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                long latency = System.nanoTime() - intended;
+                if (error != null || response.statusCode() != 200) {
+                    result.errors.increment();
+                } else {
+                    result.latencies.record(latency);
+                }
+                outstanding.release();
+            });
+        }
+        // every permit back means every response is in; timed-out requests have already counted as errors
+        if (outstanding.tryAcquire(maxOutstanding, 60, TimeUnit.SECONDS)) {
+            outstanding.release(maxOutstanding);
+        }
+        result.durationNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private String nextWord(ThreadLocalRandom random) {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        rank = rank >= 0 ? rank : Math.min(-rank - 1, vocabulary.length - 1);
+        return URLEncoder.encode(vocabulary[rank], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The corpus vocabulary ordered by descending frequency (Zipf rank 1 first).
+     */
+    static String[] vocabulary(String text) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : text.split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                frequencies.merge(token, 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(frequencies.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        return entries.stream().map(Map.Entry::getKey).toArray(String[]::new);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ThroughPutHttpServer.enableTcpNoDelay();
+        String inputFile = INPUT_FILE;
+        String targetUri = null;
+        double rate = 500;
+        long durationMillis = 10000;
+        long warmupMillis = 3000;
+        double zipfExponent = 1.0;
+        int maxOutstanding = 256;
+        ThroughPutHttpServer.ExecutorKind[] executors = ThroughPutHttpServer.ExecutorKind.values();
+        ThroughPutHttpServer.SearchMode[] modes = ThroughPutHttpServer.SearchMode.values();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                inputFile = arg;
+                continue;
+            }
+            String name = arg.substring(2, arg.indexOf('=') < 0 ? arg.length() : arg.indexOf('='));
+            String value = arg.indexOf('=') < 0 ? "" : arg.substring(arg.indexOf('=') + 1);
+            switch (name) {
+                case "target":
+                    targetUri = value;
+                    break;
+                case "rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "duration":
+                    durationMillis = Long.parseLong(value) * 1000;
+                    break;
+                case "warmup":
+                    warmupMillis = Long.parseLong(value) * 1000;
+                    break;
+                case "zipf":
+                    zipfExponent = Double.parseDouble(value);
+                    break;
+                case "max-outstanding":
+                    maxOutstanding = Integer.parseInt(value);
+                    break;
+                case "executors":
+                    executors = Arrays.stream(value.split(",")).map(String::toUpperCase)
+                            .map(ThroughPutHttpServer.ExecutorKind::valueOf).toArray(ThroughPutHttpServer.ExecutorKind[]::new);
+                    break;
+                case "modes":
+                    modes = Arrays.stream(value.split(",")).map(String::toUpperCase)
+                            .map(ThroughPutHttpServer.SearchMode::valueOf).toArray(ThroughPutHttpServer.SearchMode[]::new);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        Path path = Paths.get(inputFile);
+        String[] vocabulary = vocabulary(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        System.out.printf("open loop at %,.0f req/s for %d s, Zipf(%.2f) over %,d words%n",
+                rate, durationMillis / 1000, zipfExponent, vocabulary.length);
+
+        if (targetUri != null) {
+            LoadGenerator generator = new LoadGenerator(URI.create(targetUri), vocabulary, zipfExponent, maxOutstanding);
+            generator.run(rate, warmupMillis);
+            System.out.println(generator.run(rate, durationMillis));
+            return;
+        }
+
+        // executors this JVM can't create (VIRTUAL before JDK 21) are left out up front, before any server binds the port
+        List<ThroughPutHttpServer.ExecutorKind> available = new ArrayList<>();
+        for (ThroughPutHttpServer.ExecutorKind executor : executors) {
+            try {
+                ThroughPutHttpServer.createExecutor(executor, 1).shutdown();
+                available.add(executor);
+            } catch (UnsupportedOperationException e) {
+                System.out.printf("%-13s skipped: %s%n", executor, e.getMessage());
+            }
+        }
+
+        Corpus corpus = Corpus.map(path);
+        for (ThroughPutHttpServer.SearchMode mode : modes) {
+            for (ThroughPutHttpServer.ExecutorKind executor : available) {
+                ThroughPutHttpServer.ServerOptions options = new ThroughPutHttpServer.ServerOptions();
+                options.port = PORT;
+                options.mode = mode;
+                options.executor = executor;
+                HttpServer server = ThroughPutHttpServer.startServer(corpus, options);
+                try {
+                    LoadGenerator generator = new LoadGenerator(URI.create("http://localhost:" + PORT), vocabulary, zipfExponent, maxOutstanding);
+                    generator.run(rate, warmupMillis);
+                    System.out.printf("%-12s %-13s %s%n", mode, executor, generator.run(rate, durationMillis));
+                } finally {
+                    server.stop(0);
+                    ((ExecutorService) server.getExecutor()).shutdownNow();
+                }
+            }
+        }
+    }
+}
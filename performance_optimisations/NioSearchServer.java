@@ -0,0 +1,491 @@
+package performance_optimisations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Alternative engine for the {@code /search} route built directly on NIO selectors. One acceptor thread hands new
+ * connections round-robin to N event loops; each loop parses HTTP/1.1 requests without blocking, answers every
+ * complete request in its read buffer (pipelining), keeps connections open unless asked not to, and writes responses
+ * out of a single direct buffer that it reuses for every connection it owns.
+ * <p>
+ * Routes that can take a while ({@code /search} may scan the whole corpus, {@code /top} and {@code /phrase} may build
+ * their index on first use) run on a separate worker pool, so they never hold up the other connections of their loop.
+ * While one of them is running, its connection reads no further requests; the loop writes the response when the
+ * worker hands it back and then carries on with any requests pipelined behind it, so responses stay in order.
+ */
+public class NioSearchServer implements Closeable {
+    private static final int READ_BUFFER_SIZE = 8 * 1024; // also the largest request head we accept
+    private static final int MAX_BODY = ThroughPutHttpServer.AdminHandler.MAX_BODY; // larger bodies get a 413, as on the JDK engine
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] HEAD_END = {'\r', '\n', '\r', '\n'};
+
+    private final ThroughPutHttpServer.WordCountHandler handler;
+    private final int port;
+    private final boolean reusePort;
+    private final EventLoop[] eventLoops;
+    private final int workerThreads;
+    private final List<Thread> threads = new ArrayList<>();
+    private ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    public NioSearchServer(ThroughPutHttpServer.WordCountHandler handler, int port, int numberOfEventLoops) {
+        this(handler, port, numberOfEventLoops, false);
+    }
+
+    public NioSearchServer(ThroughPutHttpServer.WordCountHandler handler, int port, int numberOfEventLoops, boolean reusePort) {
+        this(handler, port, numberOfEventLoops, Runtime.getRuntime().availableProcessors(), reusePort);
+    }
+
+    /**
+     * {@code workerThreads} answer the slow routes. With {@code reusePort}, several processes can bind the same port
+     * and the kernel spreads incoming connections across them (SO_REUSEPORT, Linux 3.9+).
+     */
+    public NioSearchServer(ThroughPutHttpServer.WordCountHandler handler, int port, int numberOfEventLoops, int workerThreads,
+                           boolean reusePort) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("Need at least one worker thread");
+        }
+        if (numberOfEventLoops < 1) {
+            throw new IllegalArgumentException("Need at least one event loop");
+        }
+        this.handler = handler;
+        this.port = port;
+        this.reusePort = reusePort;
+        this.workerThreads = workerThreads;
+        this.eventLoops = new EventLoop[numberOfEventLoops];
+    }
+
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        if (reusePort) {
+            if (!serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                serverChannel.close();
+                throw new UnsupportedOperationException("SO_REUSEPORT is not supported on this platform");
+            }
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "nio-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop();
+            threads.add(new Thread(eventLoops[i], "nio-event-loop-" + i));
+        }
+        threads.add(new Thread(this::acceptLoop, "nio-acceptor"));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverChannel.close(); // unblocks accept()
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.selector.wakeup();
+        }
+        workers.shutdownNow();
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept(); // blocking: accepting is all this thread does
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                eventLoops[next].register(channel);
+                next = (next + 1) % eventLoops.length;
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static class Connection {
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE); // grown for a request with a large body, then shrunk back
+        ByteBuffer pendingOut; // response bytes the socket would not take yet
+        boolean closeAfterWrite;
+        boolean waiting; // a worker is answering this connection's current request
+    }
+
+    // a response computed on a worker, for the event loop to write
+    private static class Completion {
+        final SelectionKey key;
+        final String status;
+        final byte[] body;
+
+        Completion(SelectionKey key, String status, byte[] body) {
+            this.key = key;
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> newConnections = new ConcurrentLinkedQueue<>();
+        private final Queue<Completion> completions = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE); // shared by all this loop's connections
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            newConnections.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = newConnections.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ, new Connection());
+                    }
+                    Completion completion;
+                    while ((completion = completions.poll()) != null) {
+                        onCompleted(completion);
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isWritable()) {
+                                onWritable(key);
+                            } else if (key.isReadable()) {
+                                onReadable(key);
+                            }
+                        } catch (IOException e) {
+                            close(key); // peer reset or similar: only this connection is affected
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    close(key);
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void onReadable(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            if (channel.read(connection.in) < 0) {
+                close(key);
+                return;
+            }
+            out.clear();
+            processRequests(key, connection);
+            out.flip();
+            flush(key, channel, connection);
+        }
+
+        private void onCompleted(Completion completion) {
+            SelectionKey key = completion.key;
+            if (!key.isValid()) {
+                return; // the connection was closed in the meantime
+            }
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            try {
+                out.clear();
+                connection.waiting = false;
+                writeResponse(channel, connection, completion.status, completion.body);
+                processRequests(key, connection); // whatever was pipelined behind it
+                out.flip();
+                flush(key, channel, connection);
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+
+        // answers every complete request in the read buffer, so pipelined requests cost a single write
+        private void processRequests(SelectionKey key, Connection connection) throws IOException {
+            if (connection.waiting) {
+                return; // the rest waits behind the request a worker is answering
+            }
+            SocketChannel channel = (SocketChannel) key.channel();
+            ByteBuffer in = connection.in;
+            int start = 0;
+            int partial = 0; // size of a request whose head is in but whose body is still on its way
+            int headEnd;
+            while (!connection.closeAfterWrite && !connection.waiting && (headEnd = indexOf(in, start, in.position(), HEAD_END)) >= 0) {
+                Request request = parse(in, start, headEnd);
+                if (request.contentLength > MAX_BODY) {
+                    connection.closeAfterWrite = true; // the body isn't read, so the next request can't be found
+                    writeResponse(channel, connection, "413 Payload Too Large", null);
+                    in.clear();
+                    return;
+                }
+                int requestEnd = headEnd + HEAD_END.length + request.contentLength;
+                if (requestEnd > in.position()) {
+                    partial = requestEnd - start;
+                    break; // the body is still on its way
+                }
+                start = requestEnd;
+                connection.closeAfterWrite = !request.keepAlive;
+                request.body = Arrays.copyOfRange(in.array(), headEnd + HEAD_END.length, requestEnd);
+                respond(key, connection, request);
+            }
+            if (partial == 0 && start == 0 && !in.hasRemaining()) {
+                connection.closeAfterWrite = true; // request head larger than the buffer
+                writeResponse(channel, connection, "431 Request Header Fields Too Large", null);
+                in.clear();
+                return;
+            }
+            // drop the requests we answered and keep a partial one for the next read
+            in.flip().position(start);
+            in.compact();
+            if (partial > in.capacity()) {
+                connection.in = ByteBuffer.allocate(partial).put(in.flip());
+            } else if (in.capacity() > READ_BUFFER_SIZE && in.position() <= READ_BUFFER_SIZE && partial <= READ_BUFFER_SIZE) {
+                connection.in = ByteBuffer.allocate(READ_BUFFER_SIZE).put(in.flip()); // the large request has been answered
+            }
+        }
+
+        private void respond(SelectionKey key, Connection connection, Request request) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            String path = request.target == null ? null : request.target.getPath();
+            if (path == null) {
+                writeResponse(channel, connection, "400 Bad Request", null);
+                return;
+            }
+            switch (path) {
+                case "/search":
+                    dispatch(key, connection, request, handler::search);
+                    break;
+                case "/top":
+                    dispatch(key, connection, request, handler::top);
+                    break;
+                case "/phrase":
+                    dispatch(key, connection, request, handler::phrase);
+                    break;
+                case "/stats":
+                    writeResponse(channel, connection, "200 OK", handler.stats().getBytes(StandardCharsets.UTF_8));
+                    break;
+                case "/admin/corpus": // only schedules the update, so it's cheap enough to answer here
+                    if (!handler.adminEnabled()) {
+                        writeResponse(channel, connection, "404 Not Found", null);
+                    } else if (!((InetSocketAddress) channel.getRemoteAddress()).getAddress().isLoopbackAddress()) {
+                        writeResponse(channel, connection, "403 Forbidden", null);
+                    } else {
+                        byte[] body = handler.update(request.target.getQuery(), request.body);
+                        writeResponse(channel, connection, body == null ? "400 Bad Request" : "202 Accepted", body);
+                    }
+                    break;
+                default:
+                    writeResponse(channel, connection, "404 Not Found", null);
+            }
+        }
+
+        // answers the request on a worker; the response comes back through completions
+        private void dispatch(SelectionKey key, Connection connection, Request request, Function<String, byte[]> route) {
+            connection.waiting = true;
+            String query = request.target.getQuery();
+            workers.execute(() -> {
+                Completion completion;
+                try {
+                    byte[] body = route.apply(query);
+                    completion = new Completion(key, body == null ? "400 Bad Request" : "200 OK", body);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    completion = new Completion(key, "500 Internal Server Error", null);
+                }
+                completions.add(completion);
+                selector.wakeup();
+            });
+        }
+
+        private void writeResponse(SocketChannel channel, Connection connection, String status, byte[] body) throws IOException {
+            String head = "HTTP/1.1 " + status + "\r\nContent-Length: " + (body == null ? 0 : body.length) + "\r\n"
+                    + (connection.closeAfterWrite ? "Connection: close\r\n" : "") + "\r\n";
+            put(channel, connection, head.getBytes(StandardCharsets.US_ASCII));
+            if (body != null) {
+                put(channel, connection, body);
+            }
+        }
+
+        private void put(SocketChannel channel, Connection connection, byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!out.hasRemaining()) {
+                    drainOut(channel, connection);
+                }
+                int n = Math.min(out.remaining(), bytes.length - offset);
+                out.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        // makes room in the shared buffer mid-batch; whatever the socket refuses is parked on the connection
+        private void drainOut(SocketChannel channel, Connection connection) throws IOException {
+            out.flip();
+            if (connection.pendingOut == null) {
+                channel.write(out);
+            }
+            if (out.hasRemaining()) {
+                connection.pendingOut = append(connection.pendingOut, out);
+            }
+            out.clear();
+        }
+
+        private void flush(SelectionKey key, SocketChannel channel, Connection connection) throws IOException {
+            if (connection.pendingOut == null) {
+                channel.write(out);
+            }
+            if (out.hasRemaining()) {
+                connection.pendingOut = append(connection.pendingOut, out);
+            }
+            if (connection.closeAfterWrite && connection.pendingOut == null && !connection.waiting) {
+                close(key);
+                return;
+            }
+            updateInterest(key, connection);
+        }
+
+        // stop reading while the client catches up on output, or while a worker answers the current request
+        private void updateInterest(SelectionKey key, Connection connection) {
+            key.interestOps(connection.pendingOut != null ? SelectionKey.OP_WRITE : connection.waiting ? 0 : SelectionKey.OP_READ);
+        }
+
+        private void onWritable(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            channel.write(connection.pendingOut);
+            if (connection.pendingOut.hasRemaining()) {
+                return;
+            }
+            connection.pendingOut = null;
+            if (connection.closeAfterWrite && !connection.waiting) {
+                close(key);
+                return;
+            }
+            updateInterest(key, connection);
+            if (!connection.waiting && connection.in.position() > 0) {
+                onReadable(key); // pipelined requests may have been buffered while we were writing
+            }
+        }
+
+        private void close(SelectionKey key) {
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static ByteBuffer append(ByteBuffer pending, ByteBuffer bytes) {
+        int existing = pending == null ? 0 : pending.remaining();
+        ByteBuffer merged = ByteBuffer.allocate(existing + bytes.remaining());
+        if (pending != null) {
+            merged.put(pending);
+        }
+        merged.put(bytes);
+        merged.flip();
+        return merged;
+    }
+
+    private static class Request {
+        URI target; // null if the request line could not be parsed
+        boolean keepAlive;
+        int contentLength;
+        byte[] body;
+    }
+
+    private static Request parse(ByteBuffer in, int start, int headEnd) {
+        String head = new String(in.array(), start, headEnd - start, StandardCharsets.ISO_8859_1);
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        Request request = new Request();
+        request.keepAlive = requestLine.length == 3 && requestLine[2].equals("HTTP/1.1"); // HTTP/1.0 closes by default
+        if (requestLine.length == 3) {
+            try {
+                request.target = URI.create(requestLine[1]);
+            } catch (IllegalArgumentException e) {
+                request.target = null;
+            }
+        }
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Connection")) {
+                request.keepAlive = !value.equalsIgnoreCase("close") && (request.keepAlive || value.equalsIgnoreCase("keep-alive"));
+            } else if (name.equalsIgnoreCase("Content-Length")) {
+                try {
+                    request.contentLength = Math.max(0, Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    request.target = null; // answered with a 400, and we can't tell where the next request starts
+                    request.keepAlive = false;
+                }
+            }
+        }
+        return request;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte[] pattern) {
+        byte[] array = buffer.array();
+        outer:
+        for (int i = from; i <= to - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (array[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -1,18 +1,25 @@
 package performance_optimisations;
 
 import javax.imageio.ImageIO;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 public class OptimizingLatencyImageProcessing {
 
     public static final String SOURCE_FILE = "";
     public static final String DEST_FILE = "./out/many-flowers.jpg";
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) { // a directory: recolor all of it with BatchImagePipeline
+            BatchImagePipeline.main(args);
+            return;
+        }
         BufferedImage originalImg = ImageIO.read(new File(SOURCE_FILE));
         BufferedImage resultImg = new BufferedImage(originalImg.getWidth(), originalImg.getHeight(), BufferedImage.TYPE_INT_RGB);
 
@@ -27,43 +34,28 @@ public class OptimizingLatencyImageProcessing {
         System.out.println(duration);
     }
 
+    /**
+     * Recolors the image on a shared pool of {@code numberOfThreads} workers, tile by tile (see {@link TileScheduler}).
+     */
     public static void recolorMultiThreaded(BufferedImage originalImage, BufferedImage resultImage, int numberOfThreads) {
-        List<Thread> threads = new ArrayList<>();
-        int width = originalImage.getWidth();
-        int height = originalImage.getHeight() / numberOfThreads; // breaking the img based into n parts divided across height
-        // based on the no of threads
-        for (int i = 0; i < numberOfThreads; i++) {
-            final int threadMultiplier = i;
-
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    int leftCorner = 0;
-                    int topCorner = height * threadMultiplier;
-                    recolorImage(originalImage, resultImage, leftCorner, topCorner, width, height);
-                }
-            });
-            threads.add(thread);
-        }
-
-        for (Thread thread : threads) {
-            thread.start();
-        }
-
-        for (Thread thread : threads) {
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        BufferedImage source = toIntRGB(originalImage); // once, not per tile
+        int width = Math.min(source.getWidth(), resultImage.getWidth());
+        int height = Math.min(source.getHeight(), resultImage.getHeight());
+        // 4 bytes read and 4 written per pixel on the fast path
+        TileScheduler.run(TileScheduler.pool(numberOfThreads), width, height, 8,
+                (left, top, tileWidth, tileHeight) -> recolorImage(source, resultImage, left, top, tileWidth, tileHeight));
     }
 
     public static void recolorSingleThreaded(BufferedImage originalImage, BufferedImage resultImage) {
-        recolorImage(originalImage, resultImage, 0, 0, originalImage.getWidth(), originalImage.getHeight());
+        recolorImage(toIntRGB(originalImage), resultImage, 0, 0, originalImage.getWidth(), originalImage.getHeight());
     }
 
     public static void recolorImage(BufferedImage originalImage, BufferedImage resultImage, int leftCorner, int topCorner, int width, int height) {
+        if (isIntRGB(originalImage) && isIntRGB(resultImage)) {
+            recolorPixels(originalImage, resultImage, leftCorner, topCorner, width, height);
+            return;
+        }
+        // any other layout goes through the color model one pixel at a time
         for (int i = leftCorner; i < leftCorner + width && i < originalImage.getWidth(); i++) {
             for (int j = topCorner; j < topCorner + height && j < originalImage.getHeight(); j++) {
                 recolorPixel(originalImage, resultImage, i, j);
@@ -71,8 +63,132 @@ public class OptimizingLatencyImageProcessing {
         }
     }
 
+    /**
+     * Fast path for images backed by a packed {@code int[]} (TYPE_INT_RGB / TYPE_INT_ARGB): reads and writes the
+     * backing arrays directly, a row at a time, with no per-pixel color-model calls or allocation. Rows are located
+     * through the raster's scanline stride and offsets, so sub-images and padded rasters work too.
+     */
+    public static void recolorPixels(BufferedImage originalImage, BufferedImage resultImage, int leftCorner, int topCorner, int width, int height) {
+        int right = Math.min(leftCorner + width, Math.min(originalImage.getWidth(), resultImage.getWidth()));
+        int bottom = Math.min(topCorner + height, Math.min(originalImage.getHeight(), resultImage.getHeight()));
+        WritableRaster source = originalImage.getRaster();
+        WritableRaster result = resultImage.getRaster();
+        int[] sourcePixels = ((DataBufferInt) source.getDataBuffer()).getData();
+        int[] resultPixels = ((DataBufferInt) result.getDataBuffer()).getData();
+        int sourceStride = ((SinglePixelPackedSampleModel) source.getSampleModel()).getScanlineStride();
+        int resultStride = ((SinglePixelPackedSampleModel) result.getSampleModel()).getScanlineStride();
+        for (int y = topCorner; y < bottom; y++) {
+            int sourceIndex = offset(source, leftCorner, y, sourceStride);
+            int resultIndex = offset(result, leftCorner, y, resultStride);
+            KERNEL.recolor(sourcePixels, sourceIndex, resultPixels, resultIndex, right - leftCorner);
+        }
+    }
+
+    /**
+     * Recolors {@code length} consecutive packed pixels from {@code source} into {@code result}.
+     */
+    public interface RecolorKernel {
+        void recolor(int[] source, int sourceIndex, int[] result, int resultIndex, int length);
+    }
+
+    // a plain sequential scan over both arrays, which the JIT can hoist the bounds checks out of
+    public static final RecolorKernel SCALAR_KERNEL = (source, sourceIndex, result, resultIndex, length) -> {
+        for (int i = 0; i < length; i++) {
+            result[resultIndex + i] = recolorRGB(source[sourceIndex + i]);
+        }
+    };
+
+    private static final RecolorKernel KERNEL = loadKernel();
+
+    /**
+     * The kernel {@link #recolorPixels} uses: the SIMD one when the JVM was started with
+     * {@code --add-modules jdk.incubator.vector} (unless {@code -Drecolor.kernel=scalar}), else the scalar one.
+     */
+    public static RecolorKernel kernel() {
+        return KERNEL;
+    }
+
+    /**
+     * The Vector API kernel, or null when the incubator module isn't in the boot layer or the kernel (in the separate
+     * {@code vector_kernels} source root) wasn't compiled onto the class path. The class is only loaded by name after
+     * the module check, so this class itself never links against the module.
+     */
+    public static RecolorKernel vectorKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (RecolorKernel) Class.forName("performance_optimisations.VectorRecolorKernel")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static RecolorKernel loadKernel() {
+        RecolorKernel vector = "scalar".equals(System.getProperty("recolor.kernel")) ? null : vectorKernel();
+        return vector != null ? vector : SCALAR_KERNEL;
+    }
+
+    // index of pixel (x, y) in the raster's backing array
+    static int offset(WritableRaster raster, int x, int y, int stride) {
+        return raster.getDataBuffer().getOffset()
+                + (y - raster.getSampleModelTranslateY()) * stride + (x - raster.getSampleModelTranslateX());
+    }
+
+    /**
+     * True if the image stores one pixel per int with the usual 0x(AA)RRGGBB layout, so {@link #recolorPixels} can
+     * work on its array.
+     */
+    public static boolean isIntRGB(BufferedImage image) {
+        if (!(image.getRaster().getDataBuffer() instanceof DataBufferInt)
+                || image.getRaster().getDataBuffer().getNumBanks() != 1
+                || !(image.getSampleModel() instanceof SinglePixelPackedSampleModel)
+                || !(image.getColorModel() instanceof DirectColorModel)) {
+            return false;
+        }
+        DirectColorModel colorModel = (DirectColorModel) image.getColorModel();
+        return colorModel.getRedMask() == 0x00FF0000 && colorModel.getGreenMask() == 0x0000FF00
+                && colorModel.getBlueMask() == 0x000000FF && !colorModel.isAlphaPremultiplied();
+    }
+
+    /**
+     * Returns the image itself if it is already int-packed RGB, else an int-packed copy: TYPE_INT_ARGB holding the
+     * unpremultiplied channels {@code getRGB} returns if the image has alpha, TYPE_INT_RGB if not. ImageIO hands JPEGs
+     * back as TYPE_3BYTE_BGR, so this one conversion is what lets the whole recolor take the fast path.
+     */
+    public static BufferedImage toIntRGB(BufferedImage image) {
+        if (isIntRGB(image)) {
+            return image;
+        }
+        BufferedImage converted = intRGBFor(image, image.getWidth(), image.getHeight());
+        copyPixels(image, converted);
+        return converted;
+    }
+
+    /**
+     * An empty int-packed image of the given size for pixels of {@code image}: TYPE_INT_ARGB if it has alpha.
+     */
+    public static BufferedImage intRGBFor(BufferedImage image, int width, int height) {
+        return new BufferedImage(width, height, image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Copies {@code from} into the top left of {@code to}, replacing what is there: the default composite would blend
+     * translucent pixels with the destination (black, in a new TYPE_INT_RGB image).
+     */
+    public static void copyPixels(BufferedImage from, BufferedImage to) {
+        Graphics2D graphics = to.createGraphics();
+        graphics.setComposite(AlphaComposite.Src);
+        graphics.drawImage(from, 0, 0, null);
+        graphics.dispose();
+    }
+
     public static void recolorPixel(BufferedImage originalImage, BufferedImage resultImage, int x, int y) {
-        int rgb = originalImage.getRGB(x, y);
+        setRGB(resultImage, x, y, recolorRGB(originalImage.getRGB(x, y)));
+    }
+
+    public static int recolorRGB(int rgb) {
         int red = getRed(rgb);
         int green = getGreen(rgb);
         int blue = getBlue(rgb);
@@ -87,8 +203,7 @@ public class OptimizingLatencyImageProcessing {
             newGreen = green;
             newBlue = blue;
         }
-        int newRGB = createRGBFromColors(newRed, newGreen, newBlue);
-        setRGB(resultImage, x, y, newRGB);
+        return createRGBFromColors(newRed, newGreen, newBlue);
     }
 
     public static void setRGB(BufferedImage image, int x, int y, int rgb) {
@@ -0,0 +1,142 @@
+package performance_optimisations;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits a single substring count into segments that are counted on a shared {@link ForkJoinPool}. Each segment
+ * counts the matches that *start* inside it but may read past its end, so a match straddling two segments is
+ * counted exactly once.
+ */
+public class ParallelSearch {
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static final long MIN_SEGMENT_SIZE = 1 << 20;
+
+    public enum Policy {
+        THROUGHPUT, // one thread per request: best when there are at least as many requests in flight as cores
+        LATENCY, // always split: best when a few requests each scan a multi-GB corpus
+        ADAPTIVE // split only while fewer requests are in flight than the pool has workers to spare
+    }
+
+    private final Policy policy;
+    private final long parallelThreshold; // corpora smaller than this are never split
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public ParallelSearch(Policy policy, long parallelThreshold) {
+        this.policy = policy;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    // also used for index construction, so startup work and split scans share the same workers
+    static ForkJoinPool pool() {
+        return POOL;
+    }
+
+    public long count(Corpus corpus, byte[] pattern) {
+        int concurrentRequests = inFlight.incrementAndGet();
+        try {
+            if (shouldSplit(corpus.length(), concurrentRequests)) {
+                long segmentSize = Math.max(MIN_SEGMENT_SIZE, corpus.length() / (POOL.getParallelism() * 4L));
+                return POOL.invoke(new CountTask(corpus, pattern, 0, corpus.length(), segmentSize));
+            }
+            return corpus.count(pattern);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Counts every pattern of the automaton in one pass over the corpus, split into segments like {@link #count}.
+     */
+    public long[] countAll(Corpus corpus, AhoCorasick automaton) {
+        int concurrentRequests = inFlight.incrementAndGet();
+        try {
+            if (shouldSplit(corpus.length(), concurrentRequests)) {
+                long segmentSize = Math.max(MIN_SEGMENT_SIZE, corpus.length() / (POOL.getParallelism() * 4L));
+                return automaton.counts(POOL.invoke(new VisitsTask(corpus, automaton, 0, corpus.length(), segmentSize)));
+            }
+            return automaton.count(corpus);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private boolean shouldSplit(long length, int concurrentRequests) {
+        if (length < parallelThreshold) {
+            return false;
+        }
+        switch (policy) {
+            case LATENCY:
+                return true;
+            case ADAPTIVE:
+                return concurrentRequests * 2 <= POOL.getParallelism();
+            default:
+                return false;
+        }
+    }
+
+    private static class CountTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final Corpus corpus;
+        private final byte[] pattern;
+        private final long from;
+        private final long to;
+        private final long segmentSize;
+
+        CountTask(Corpus corpus, byte[] pattern, long from, long to, long segmentSize) {
+            this.corpus = corpus;
+            this.pattern = pattern;
+            this.from = from;
+            this.to = to;
+            this.segmentSize = segmentSize;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= segmentSize) {
+                return corpus.count(pattern, from, to);
+            }
+            long middle = from + (to - from) / 2;
+            CountTask left = new CountTask(corpus, pattern, from, middle, segmentSize);
+            left.fork();
+            long right = new CountTask(corpus, pattern, middle, to, segmentSize).compute();
+            return right + left.join();
+        }
+    }
+
+    private static class VisitsTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final Corpus corpus;
+        private final AhoCorasick automaton;
+        private final long from;
+        private final long to;
+        private final long segmentSize;
+
+        VisitsTask(Corpus corpus, AhoCorasick automaton, long from, long to, long segmentSize) {
+            this.corpus = corpus;
+            this.automaton = automaton;
+            this.from = from;
+            this.to = to;
+            this.segmentSize = segmentSize;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from <= segmentSize) {
+                return automaton.visits(corpus, from, to);
+            }
+            long middle = from + (to - from) / 2;
+            VisitsTask left = new VisitsTask(corpus, automaton, from, middle, segmentSize);
+            left.fork();
+            long[] visits = new VisitsTask(corpus, automaton, middle, to, segmentSize).compute();
+            long[] leftVisits = left.join();
+            for (int i = 0; i < visits.length; i++) {
+                visits[i] += leftVisits[i];
+            }
+            return visits;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package performance_optimisations;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A per-pixel transform of packed 0xAARRGGBB values, the unit {@link FilterPipeline} chains together. Filters work on
+ * runs of pixels so that implementations with a faster bulk form (a SIMD kernel, a table lookup) can use it.
+ */
+public interface PixelFilter {
+
+    int filter(int rgb);
+
+    /**
+     * Filters {@code length} pixels from {@code source} into {@code result}; the two ranges may be the same.
+     */
+    default void filter(int[] source, int sourceIndex, int[] result, int resultIndex, int length) {
+        for (int i = 0; i < length; i++) {
+            result[resultIndex + i] = filter(source[sourceIndex + i]);
+        }
+    }
+
+    /**
+     * The purple tint for shades of gray from {@link OptimizingLatencyImageProcessing#recolorRGB}, through its fastest
+     * available kernel.
+     */
+    static PixelFilter recolor() {
+        OptimizingLatencyImageProcessing.RecolorKernel kernel = OptimizingLatencyImageProcessing.kernel();
+        return new PixelFilter() {
+            @Override
+            public int filter(int rgb) {
+                return OptimizingLatencyImageProcessing.recolorRGB(rgb);
+            }
+
+            @Override
+            public void filter(int[] source, int sourceIndex, int[] result, int resultIndex, int length) {
+                kernel.recolor(source, sourceIndex, result, resultIndex, length);
+            }
+        };
+    }
+
+    // Rec. 601 luma in 8-bit fixed point
+    static int luma(int rgb) {
+        return (77 * ((rgb >> 16) & 0xFF) + 150 * ((rgb >> 8) & 0xFF) + 29 * (rgb & 0xFF)) >> 8;
+    }
+
+    static PixelFilter grayscale() {
+        return rgb -> {
+            int y = luma(rgb);
+            return (rgb & 0xFF000000) | (y << 16) | (y << 8) | y;
+        };
+    }
+
+    /**
+     * Black below {@code level} (by luma), white from it on.
+     */
+    static PixelFilter threshold(int level) {
+        return rgb -> (rgb & 0xFF000000) | (luma(rgb) >= level ? 0xFFFFFF : 0);
+    }
+
+    /**
+     * Moves every channel {@code amount} (0..1) of the way towards the matching channel of {@code color}.
+     */
+    static PixelFilter tint(int color, double amount) {
+        return lut(c -> (int) Math.round(c + (((color >> 16) & 0xFF) - c) * amount),
+                c -> (int) Math.round(c + (((color >> 8) & 0xFF) - c) * amount),
+                c -> (int) Math.round(c + ((color & 0xFF) - c) * amount));
+    }
+
+    static PixelFilter gamma(double gamma) {
+        IntUnaryOperator curve = c -> (int) Math.round(255 * Math.pow(c / 255.0, 1 / gamma));
+        return lut(curve, curve, curve);
+    }
+
+    static PixelFilter brightness(int delta) {
+        IntUnaryOperator shift = c -> c + delta;
+        return lut(shift, shift, shift);
+    }
+
+    /**
+     * A filter that maps each channel on its own; results are clamped to 0..255. The three functions are evaluated
+     * once per channel value here, so applying it is three table lookups per pixel, and consecutive lookup filters in
+     * a {@link FilterPipeline} collapse into one.
+     */
+    static PixelFilter lut(IntUnaryOperator red, IntUnaryOperator green, IntUnaryOperator blue) {
+        return new ChannelLookup(ChannelLookup.table(red), ChannelLookup.table(green), ChannelLookup.table(blue));
+    }
+
+    final class ChannelLookup implements PixelFilter {
+        private final int[] red; // indexed by the old channel value, already shifted into place
+        private final int[] green;
+        private final int[] blue;
+
+        private ChannelLookup(int[] red, int[] green, int[] blue) {
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+            for (int c = 0; c < 256; c++) {
+                red[c] <<= 16;
+                green[c] <<= 8;
+            }
+        }
+
+        private static int[] table(IntUnaryOperator function) {
+            int[] table = new int[256];
+            for (int c = 0; c < 256; c++) {
+                table[c] = Math.max(0, Math.min(255, function.applyAsInt(c)));
+            }
+            return table;
+        }
+
+        @Override
+        public int filter(int rgb) {
+            return (rgb & 0xFF000000) | red[(rgb >> 16) & 0xFF] | green[(rgb >> 8) & 0xFF] | blue[rgb & 0xFF];
+        }
+
+        /**
+         * This lookup followed by {@code next}, as a single lookup.
+         */
+        ChannelLookup then(ChannelLookup next) {
+            int[] r = new int[256];
+            int[] g = new int[256];
+            int[] b = new int[256];
+            for (int c = 0; c < 256; c++) {
+                r[c] = (next.red[red[c] >> 16] >> 16) & 0xFF;
+                g[c] = (next.green[green[c] >> 8] >> 8) & 0xFF;
+                b[c] = next.blue[blue[c]];
+            }
+            return new ChannelLookup(r, g, b);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package performance_optimisations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Positional inverted index: for every distinct word, the list of token positions (0 for the first word of the text,
+ * 1 for the second, ...) where it occurs. A phrase is then a merge of its words' lists looking for consecutive
+ * positions, and a proximity query the same merge with a wider gap - neither touches the text.
+ * <p>
+ * Postings are stored as the gaps between successive positions, varint-encoded, so a frequent word costs about one
+ * byte per occurrence. Words are keyed by the same 64-bit FNV-1a hash as {@link WordIndex}, with each word's bytes kept
+ * beside its postings and compared whenever the hashes match, so two words with the same hash never share a list.
+ * They are split on the same bytes too, which means punctuation between words is ignored: "Prince, Andrew" matches
+ * the phrase "Prince Andrew".
+ */
+public class PositionalIndex {
+    private long[] keys; // open addressing: word hash -> id + 1 in ids
+    private int[] ids;
+    private int mask;
+    private byte[][] words; // by id: the word itself
+    private byte[][] postings; // by id: gap-encoded positions
+    private int[] postingsLength;
+    private int[] lastPosition;
+    private int[] frequencies;
+    private int size; // distinct words
+    private int tokens;
+    private final long textLength;
+
+    private PositionalIndex(long textLength) {
+        this.textLength = textLength;
+        keys = new long[1 << 16];
+        ids = new int[1 << 16];
+        mask = keys.length - 1;
+        words = new byte[1 << 15][];
+        postings = new byte[1 << 15][];
+        postingsLength = new int[1 << 15];
+        lastPosition = new int[1 << 15];
+        frequencies = new int[1 << 15];
+    }
+
+    public static PositionalIndex build(Corpus corpus) {
+        PositionalIndex index = new PositionalIndex(corpus.length());
+        long length = corpus.length();
+        long i = 0;
+        while (i < length) {
+            while (i < length && !WordIndex.isWordAt(corpus, i)) {
+                i++;
+            }
+            long start = i;
+            while (i < length && WordIndex.isWordAt(corpus, i)) {
+                i++;
+            }
+            if (i > start) {
+                if (index.tokens == Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Positional index supports up to 2^31 words");
+                }
+                index.addPosition(WordIndex.hash(corpus, start, i), corpus, start, i, index.tokens++);
+            }
+        }
+        index.trim();
+        return index;
+    }
+
+    /**
+     * Counts the places where the words of {@code phrase} occur in order, each at most {@code within} positions after
+     * the previous one (1 = an exact phrase). Returns -1 if the phrase has no words.
+     */
+    public long count(String phrase, int within) {
+        byte[][] phraseWords = split(phrase.getBytes(StandardCharsets.UTF_8));
+        if (phraseWords.length == 0) {
+            return -1;
+        }
+        Window[] windows = new Window[phraseWords.length];
+        int[] ids = new int[phraseWords.length];
+        for (int w = 0; w < phraseWords.length; w++) {
+            ids[w] = id(phraseWords[w]);
+            if (ids[w] < 0) {
+                return 0;
+            }
+            windows[w] = new Window(new Cursor(postings[ids[w]], postingsLength[ids[w]]));
+        }
+        if (windows.length == 1) {
+            return frequencies[ids[0]];
+        }
+        // for each occurrence of the first word, the positions of each next word that some reachable position of the
+        // word before it is within range of. Following only the nearest occurrence would miss matches that go through
+        // a later one (A B B C with C two after the second B). Starts only move forward, so every list is still decoded
+        // once; each window just holds the positions a later start may need again.
+        long count = 0;
+        int[] reachable = new int[16];
+        int[] next = new int[16];
+        Cursor first = windows[0].cursor;
+        while (first.next()) {
+            int start = first.position;
+            reachable[0] = start;
+            int size = 1;
+            for (int w = 1; w < windows.length && size > 0; w++) {
+                Window window = windows[w];
+                if (!window.dropThrough(start)) {
+                    return count; // this word never occurs again, so nothing later can match either
+                }
+                long last = (long) reachable[size - 1] + within; // within may be up to Integer.MAX_VALUE
+                window.fillThrough(last);
+                int nextSize = 0;
+                for (int i = window.head, r = 0; i < window.tail && window.positions[i] <= last; i++) {
+                    int position = window.positions[i];
+                    while ((long) reachable[r] + within < position) {
+                        r++; // can't pass size - 1, which is within range of position
+                    }
+                    if (reachable[r] < position) {
+                        if (nextSize == next.length) {
+                            next = Arrays.copyOf(next, nextSize * 2);
+                        }
+                        next[nextSize++] = position;
+                    }
+                }
+                int[] swap = reachable;
+                reachable = next;
+                next = swap;
+                size = nextSize;
+            }
+            if (size > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int words() {
+        return size;
+    }
+
+    public int tokens() {
+        return tokens;
+    }
+
+    /**
+     * Approximate heap footprint: postings and word bytes plus per-word arrays and the hash table.
+     */
+    public long memoryBytes() {
+        long bytes = (long) keys.length * (Long.BYTES + Integer.BYTES);
+        for (int id = 0; id < size; id++) {
+            bytes += 32 + postings[id].length + words[id].length; // two array headers + payloads
+        }
+        return bytes + (long) size * (2 * Long.BYTES + 3 * Integer.BYTES);
+    }
+
+    @Override
+    public String toString() {
+        long memory = memoryBytes();
+        return "phrase.words=" + size + "\nphrase.tokens=" + tokens + "\nphrase.memoryBytes=" + memory
+                + "\nphrase.textBytes=" + textLength
+                + String.format("%nphrase.memoryToText=%.2f%n", textLength == 0 ? 0.0 : (double) memory / textLength);
+    }
+
+    private void addPosition(long hash, Corpus corpus, long start, long end, int position) {
+        int slot = slot(hash);
+        while (keys[slot] != 0 && !(keys[slot] == hash && WordIndex.equals(words[ids[slot] - 1], corpus, start, end))) {
+            slot = (slot + 1) & mask;
+        }
+        int id;
+        if (keys[slot] == 0) {
+            id = newWord(corpus.bytes(start, end));
+            keys[slot] = hash;
+            ids[slot] = id + 1;
+            if (size * 2 > keys.length) {
+                resize();
+            }
+            appendVarint(id, position);
+        } else {
+            id = ids[slot] - 1;
+            appendVarint(id, position - lastPosition[id]);
+        }
+        lastPosition[id] = position;
+        frequencies[id]++;
+    }
+
+    private int newWord(byte[] word) {
+        if (size == postings.length) {
+            int capacity = size * 2;
+            words = Arrays.copyOf(words, capacity);
+            postings = Arrays.copyOf(postings, capacity);
+            postingsLength = Arrays.copyOf(postingsLength, capacity);
+            lastPosition = Arrays.copyOf(lastPosition, capacity);
+            frequencies = Arrays.copyOf(frequencies, capacity);
+        }
+        words[size] = word;
+        postings[size] = new byte[4];
+        return size++;
+    }
+
+    private void appendVarint(int id, int value) {
+        byte[] bytes = postings[id];
+        int length = postingsLength[id];
+        if (length + 5 > bytes.length) {
+            bytes = postings[id] = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+        }
+        while ((value & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+        postingsLength[id] = length;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldIds = ids;
+        keys = new long[oldKeys.length * 2];
+        ids = new int[oldIds.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+    }
+
+    // drops the growth slack once the build is done
+    private void trim() {
+        for (int id = 0; id < size; id++) {
+            postings[id] = Arrays.copyOf(postings[id], postingsLength[id]);
+        }
+        words = Arrays.copyOf(words, size);
+        postings = Arrays.copyOf(postings, size);
+        postingsLength = Arrays.copyOf(postingsLength, size);
+        frequencies = Arrays.copyOf(frequencies, size);
+        lastPosition = null; // only needed while appending positions
+    }
+
+    private int id(byte[] word) {
+        long hash = WordIndex.hash(word, 0, word.length);
+        for (int slot = slot(hash); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == hash && Arrays.equals(words[ids[slot] - 1], word)) {
+                return ids[slot] - 1;
+            }
+            if (keys[slot] == 0) {
+                return -1;
+            }
+        }
+    }
+
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static byte[][] split(byte[] phrase) {
+        byte[][] words = new byte[phrase.length / 2 + 1][];
+        int count = 0;
+        int i = 0;
+        while (i < phrase.length) {
+            while (i < phrase.length && !WordIndex.isWordAt(phrase, phrase.length, i)) {
+                i++;
+            }
+            int start = i;
+            while (i < phrase.length && WordIndex.isWordAt(phrase, phrase.length, i)) {
+                i++;
+            }
+            if (i > start) {
+                words[count++] = Arrays.copyOfRange(phrase, start, i);
+            }
+        }
+        return Arrays.copyOf(words, count);
+    }
+
+    /**
+     * Decodes one postings list front to back.
+     */
+    private static class Cursor {
+        private final byte[] bytes;
+        private final int length;
+        private int offset;
+        int position = -1;
+
+        Cursor(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        boolean next() {
+            if (offset >= length) {
+                return false;
+            }
+            int gap = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[offset++];
+                gap |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            position = position < 0 ? gap : position + gap; // the first entry is the position itself
+            return true;
+        }
+
+        // moves to the first position after target, if there is one
+        boolean advancePast(int target) {
+            while (position <= target) {
+                if (!next()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The positions of one word a phrase match may still use, decoded from its cursor in order; the last one is
+     * always the cursor's current position.
+     */
+    private static class Window {
+        final Cursor cursor;
+        int[] positions = new int[16];
+        int head;
+        int tail;
+
+        Window(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        // forgets the positions at or before start; false if none comes after it
+        boolean dropThrough(int start) {
+            while (head < tail && positions[head] <= start) {
+                head++;
+            }
+            if (head == tail) {
+                head = tail = 0;
+                if (!cursor.advancePast(start)) {
+                    return false;
+                }
+                add(cursor.position);
+            }
+            return true;
+        }
+
+        // decodes until a position past limit is held, or the list ends
+        void fillThrough(long limit) {
+            while (positions[tail - 1] <= limit && cursor.next()) {
+                add(cursor.position);
+            }
+        }
+
+        private void add(int position) {
+            if (tail == positions.length) {
+                if (head > 0) {
+                    System.arraycopy(positions, head, positions, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                } else {
+                    positions = Arrays.copyOf(positions, positions.length * 2);
+                }
+            }
+            positions[tail++] = position;
+        }
+    }
+}
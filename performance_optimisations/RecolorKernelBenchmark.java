@@ -0,0 +1,47 @@
+package performance_optimisations;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Compares the scalar and Vector API recolor kernels on one thread, over the whole pixel array of an image.
+ * Run with {@code --add-modules jdk.incubator.vector} and {@code vector_kernels} compiled onto the class path (see the
+ * README), otherwise only the scalar kernel is measured.
+ */
+public class RecolorKernelBenchmark {
+    private static final String SOURCE_FILE = "./performance_optimisations/resources/many-flowers.jpg";
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        BufferedImage image = OptimizingLatencyImageProcessing.toIntRGB(ImageIO.read(new File(args.length > 0 ? args[0] : SOURCE_FILE)));
+        int[] source = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int[] scalarResult = new int[source.length];
+        int[] vectorResult = new int[source.length];
+
+        OptimizingLatencyImageProcessing.RecolorKernel vector = OptimizingLatencyImageProcessing.vectorKernel();
+        report("scalar", OptimizingLatencyImageProcessing.SCALAR_KERNEL, source, scalarResult);
+        if (vector == null) {
+            System.out.println("vector       unavailable: compile vector_kernels and start the JVM with --add-modules jdk.incubator.vector");
+            return;
+        }
+        report("vector", vector, source, vectorResult);
+        System.out.println("identical output: " + Arrays.equals(scalarResult, vectorResult));
+    }
+
+    private static void report(String name, OptimizingLatencyImageProcessing.RecolorKernel kernel, int[] source, int[] result) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            kernel.recolor(source, 0, result, 0, source.length);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            kernel.recolor(source, 0, result, 0, source.length);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-12s %8.2f ms, %,8.0f megapixels/s%n", name, best / 1e6, source.length / (best / 1e3));
+    }
+}
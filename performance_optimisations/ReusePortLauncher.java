@@ -0,0 +1,61 @@
+package performance_optimisations;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts N {@link ThroughPutHttpServer} processes that all listen on the same port (NIO engine with SO_REUSEPORT),
+ * so the kernel balances connections across several JVMs: no single accept loop or GC pause stalls every client.
+ * <p>
+ * The indexes are built once, here, into an {@link IndexSnapshot} before any worker starts, so no worker tokenizes
+ * the corpus or sorts its suffixes. The corpus and the suffix array (SUFFIX_ARRAY mode) are mapped read-only and share
+ * page-cache pages across workers; in INDEX mode each worker still decodes the dictionary into a {@link WordIndex} of
+ * its own, which costs heap proportional to the vocabulary, not the corpus.
+ * <p>
+ * {@code /admin/corpus} is refused with more than one worker: the kernel hands each request to any one worker, so a
+ * reload would leave the workers serving different texts.
+ */
+public class ReusePortLauncher {
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * {@code [--workers=N] [server options...]}; everything but {@code --workers} is handed to every worker.
+     */
+    public static void main(String[] args) throws Exception {
+        int workers = WORKERS;
+        List<String> serverArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--workers=")) {
+                workers = Integer.parseInt(arg.substring("--workers=".length()));
+            } else {
+                serverArgs.add(arg);
+            }
+        }
+        ThroughPutHttpServer.ServerOptions options = ThroughPutHttpServer.ServerOptions.parse(serverArgs.toArray(new String[0]));
+        if (options.adminRoot != null && workers > 1) {
+            throw new IllegalArgumentException("--admin-root needs --workers=1: a reload would only reach one worker");
+        }
+        if (options.snapshot == null) {
+            options.snapshot = options.inputFile + ".snapshot";
+            serverArgs.add("--snapshot=" + options.snapshot);
+        }
+        if (options.mode != ThroughPutHttpServer.SearchMode.SCAN) {
+            Corpus corpus = Corpus.map(Paths.get(options.inputFile), options.rangeFrom, options.rangeTo);
+            IndexSnapshot.loadOrBuild(Paths.get(options.snapshot), corpus, options.mode, 0); // so workers only map it
+        }
+        serverArgs.add("--engine=nio");
+        serverArgs.add("--reuse-port");
+
+        List<Process> processes = new ArrayList<>();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> processes.forEach(Process::destroy)));
+        for (int i = 0; i < workers; i++) {
+            List<String> command = ThroughPutHttpServer.workerCommand();
+            command.addAll(serverArgs);
+            processes.add(new ProcessBuilder(command).inheritIO().start());
+        }
+        for (Process process : processes) {
+            process.waitFor();
+        }
+    }
+}
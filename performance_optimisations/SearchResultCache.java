@@ -0,0 +1,211 @@
+package performance_optimisations;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded query -> count cache with TinyLFU admission. Every lookup is recorded in a small frequency sketch; when the
+ * cache is full a new result only gets in if the sketch says it is asked for more often than a victim sampled from the
+ * cache, so a burst of one-off queries cannot flush the hot words. Hits are lock-free; only admissions synchronize.
+ */
+public class SearchResultCache {
+    private static final int EVICTION_SAMPLE = 8;
+
+    private final int maximumSize;
+    private final ConcurrentHashMap<String, Long> entries;
+    private final String[] keys; // the cached keys, so victims can be sampled in O(1)
+    private int size;
+    private final FrequencySketch sketch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public SearchResultCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.entries = new ConcurrentHashMap<>(maximumSize * 2);
+        this.keys = new String[maximumSize];
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    public long get(String key, ToLongFunction<String> loader) {
+        sketch.increment(key);
+        Long value = entries.get(key);
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+        misses.increment();
+        long computed = loader.applyAsLong(key);
+        admit(key, computed);
+        return computed;
+    }
+
+    /**
+     * Returns the cached count (recording the access), or -1 if the key isn't cached.
+     */
+    public long getIfPresent(String key) {
+        sketch.increment(key);
+        Long value = entries.get(key);
+        if (value == null) {
+            misses.increment();
+            return -1;
+        }
+        hits.increment();
+        return value;
+    }
+
+    public void put(String key, long value) {
+        admit(key, value);
+    }
+
+    private synchronized void admit(String key, long value) {
+        if (entries.containsKey(key)) {
+            return; // another thread loaded it first
+        }
+        if (size < maximumSize) {
+            keys[size++] = key;
+            entries.put(key, value);
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int victim = -1;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int i = 0; i < EVICTION_SAMPLE; i++) {
+            int candidate = random.nextInt(size);
+            int frequency = sketch.frequency(keys[candidate]);
+            if (frequency < victimFrequency) {
+                victim = candidate;
+                victimFrequency = frequency;
+            }
+        }
+        if (sketch.frequency(key) <= victimFrequency) {
+            rejections.increment(); // not hotter than what it would replace
+            return;
+        }
+        entries.remove(keys[victim]);
+        keys[victim] = key;
+        entries.put(key, value);
+        evictions.increment();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int maximumSize() {
+        return maximumSize;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public long rejections() {
+        return rejections.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "cache.size=" + size() + "\ncache.maximumSize=" + maximumSize + "\ncache.hits=" + hits()
+                + "\ncache.misses=" + misses() + "\ncache.evictions=" + evictions() + "\ncache.rejections=" + rejections() + "\n";
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, four per key, sixteen packed into each long. After a sample of ten times the
+     * cache size every counter is halved, so popularity decays and yesterday's hot words can be evicted.
+     * Each counter update is a compare-and-set of its whole long, so concurrent increments never carry one counter into
+     * its neighbour; only the count of additions towards the next reset may lose updates, which just delays it a little.
+     */
+    static class FrequencySketch {
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+        private final AtomicLongArray table;
+        private final int counterMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int longs = Integer.highestOneBit(Math.max(2, maximumSize) - 1) << 1;
+            table = new AtomicLongArray(longs);
+            counterMask = longs * 16 - 1;
+            sampleSize = Math.max(10 * maximumSize, 16);
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                added |= incrementAt(index(hash, i));
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        /** Adds one to a 4-bit counter unless it is already saturated at 15; returns whether it was added. */
+        private boolean incrementAt(int counter) {
+            int shift = (counter & 15) << 2;
+            int slot = counter >>> 4;
+            while (true) {
+                long current = table.get(slot);
+                if (((current >>> shift) & 0xF) == 15) {
+                    return false;
+                }
+                if (table.compareAndSet(slot, current, current + (1L << shift))) {
+                    return true;
+                }
+            }
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int counter = index(hash, i);
+                frequency = Math.min(frequency, (int) ((table.get(counter >>> 4) >>> ((counter & 15) << 2)) & 0xF));
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            additions = 0;
+            for (int i = 0; i < table.length(); i++) {
+                table.getAndUpdate(i, counters -> (counters >>> 1) & RESET_MASK); // halve all 16 counters at once
+            }
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            return (int) (h ^ (h >>> 32)) & counterMask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package performance_optimisations;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scatter-gather front end over N {@link ThroughPutHttpServer} worker processes, each serving one byte range of the
+ * corpus on its own localhost port. A query goes to every shard in parallel and the counts are summed.
+ * <p>
+ * Shard boundaries are moved forward to just after a non-word character, so no word (and no multi-byte character) is ever
+ * split and whole-word counts add up exactly. A substring query can still cross a boundary ("Prince| Andrew"); the
+ * workers can't see those matches, so the coordinator counts them itself on its own mapping of the file, looking only
+ * at the few bytes before each boundary. Per-shard latencies are kept in {@link LatencyHistogram}s and reported on
+ * {@code /shards}.
+ */
+public class ShardedSearchCoordinator {
+    private static final String INPUT_FILE = "./performance_optimisations/resources/war_and_peace.txt";
+    private static final int PORT = 8000;
+    private static final int FIRST_WORKER_PORT = 9000;
+    private static final int SHARDS = 4;
+    private static final long WORKER_STARTUP_MILLIS = 120_000;
+
+    private final Corpus corpus;
+    private final Shard[] shards;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    public static class Shard {
+        final int index;
+        final long from;
+        final long to;
+        final URI uri;
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        Process process;
+
+        Shard(int index, long from, long to, URI uri) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.uri = uri;
+        }
+    }
+
+    public ShardedSearchCoordinator(Corpus corpus, int shardCount, int firstWorkerPort) {
+        this.corpus = corpus;
+        long[] boundaries = boundaries(corpus, shardCount);
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, boundaries[i], boundaries[i + 1], URI.create("http://localhost:" + (firstWorkerPort + i)));
+        }
+    }
+
+    /**
+     * {@code shards + 1} offsets, starting at 0 and ending at the corpus length; every inner one is pushed forward
+     * until the character before it is not part of a word. Shards can come out empty on tiny corpora, which is harmless.
+     */
+    static long[] boundaries(Corpus corpus, int shards) {
+        long length = corpus.length();
+        long[] boundaries = new long[shards + 1];
+        for (int i = 1; i < shards; i++) {
+            long boundary = Math.max(boundaries[i - 1], length * i / shards);
+            while (boundary > 0 && boundary < length
+                    && (WordIndex.isWordAt(corpus, boundary - 1) || (corpus.get(boundary) & 0xC0) == 0x80)) {
+                boundary++; // not inside a word, nor inside a multi-byte character such as a curly quote
+            }
+            boundaries[i] = boundary;
+        }
+        boundaries[shards] = length;
+        return boundaries;
+    }
+
+    /**
+     * Starts one worker JVM per shard with the same java binary and class path as this one, passing
+     * {@code workerArgs} through, and waits until each answers on /stats.
+     */
+    public void startWorkers(Path inputFile, List<String> workerArgs) throws IOException, InterruptedException {
+        for (Shard shard : shards) {
+            List<String> command = ThroughPutHttpServer.workerCommand();
+            command.addAll(List.of(inputFile.toString(), "--port=" + shard.uri.getPort(), "--range=" + shard.from + ":" + shard.to));
+            command.addAll(workerArgs);
+            shard.process = new ProcessBuilder(command).inheritIO().start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stopWorkers));
+        long deadline = System.currentTimeMillis() + WORKER_STARTUP_MILLIS;
+        for (Shard shard : shards) {
+            HttpRequest request = HttpRequest.newBuilder(shard.uri.resolve("/stats")).build();
+            while (true) {
+                try {
+                    client.send(request, HttpResponse.BodyHandlers.discarding());
+                    break;
+                } catch (IOException e) {
+                    if (!shard.process.isAlive() || System.currentTimeMillis() > deadline) {
+                        throw new IOException("Shard " + shard.index + " didn't come up on " + shard.uri, e);
+                    }
+                    Thread.sleep(100);
+                }
+            }
+        }
+    }
+
+    public void stopWorkers() {
+        for (Shard shard : shards) {
+            if (shard.process != null) {
+                shard.process.destroy();
+            }
+        }
+    }
+
+    public HttpServer startServer(int port, int threads) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/search", new SearchHandler());
+        server.createContext("/shards", new ShardsHandler());
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+        server.start();
+        return server;
+    }
+
+    /**
+     * Sends the raw query to every shard and sums the answers line by line (a batch has one count per word), plus the
+     * matches that cross shard boundaries. Completes with null if the query is malformed.
+     */
+    public CompletableFuture<long[]> search(String rawQuery, String query) {
+        String[] words = words(query);
+        if (words == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<CompletableFuture<long[]>> responses = new ArrayList<>();
+        for (Shard shard : shards) {
+            responses.add(ask(shard, rawQuery, words.length));
+        }
+        return CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            long[] counts = new long[words.length];
+            for (int w = 0; w < words.length; w++) {
+                counts[w] = crossingCount(words[w].getBytes(StandardCharsets.UTF_8));
+            }
+            for (CompletableFuture<long[]> response : responses) {
+                long[] shardCounts = response.join();
+                for (int w = 0; w < words.length; w++) {
+                    counts[w] += shardCounts[w];
+                }
+            }
+            return counts;
+        });
+    }
+
+    private CompletableFuture<long[]> ask(Shard shard, String rawQuery, int words) {
+        HttpRequest request = HttpRequest.newBuilder(shard.uri.resolve("/search?" + rawQuery))
+                .timeout(Duration.ofSeconds(30)).build();
+        long start = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).handle((response, error) -> {
+            shard.latencies.record(System.nanoTime() - start);
+            if (error != null || response.statusCode() != 200) {
+                shard.errors.increment();
+                throw new IllegalStateException("Shard " + shard.index + " failed: "
+                        + (error != null ? error : "status " + response.statusCode()));
+            }
+            String[] lines = response.body().split("\n");
+            long[] counts = new long[words];
+            for (int w = 0; w < words; w++) {
+                counts[w] = Long.parseLong(lines[w].trim());
+            }
+            return counts;
+        });
+    }
+
+    /**
+     * Matches no shard can see: those starting before a boundary and ending after it. Each is charged to the first
+     * boundary it crosses, so a pattern longer than a whole shard is still counted once.
+     */
+    long crossingCount(byte[] pattern) {
+        long count = 0;
+        for (int i = 1; i < shards.length; i++) {
+            long boundary = shards[i].from;
+            long from = Math.max(shards[i - 1].from, boundary - pattern.length + 1);
+            if (from < boundary) {
+                count += corpus.count(pattern, from, boundary);
+            }
+        }
+        return count;
+    }
+
+    // the decoded word= values, or null if anything else is in the query (the workers would reject it too)
+    private static String[] words(String query) {
+        if (query == null) {
+            return null;
+        }
+        String[] parameters = query.split("&");
+        String[] words = new String[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            if (!parameters[i].startsWith("word=")) {
+                return null;
+            }
+            words[i] = parameters[i].substring(5);
+        }
+        return words;
+    }
+
+    public String shardStats() {
+        StringBuilder stats = new StringBuilder();
+        Shard slowest = null;
+        for (Shard shard : shards) {
+            String prefix = "shard." + shard.index + ".";
+            stats.append(prefix).append("range=").append(shard.from).append(':').append(shard.to).append('\n')
+                    .append(prefix).append("requests=").append(shard.latencies.count()).append('\n')
+                    .append(prefix).append("errors=").append(shard.errors.sum()).append('\n')
+                    .append(prefix).append(String.format("p50Millis=%.3f%n", shard.latencies.percentile(0.5) / 1e6))
+                    .append(prefix).append(String.format("p99Millis=%.3f%n", shard.latencies.percentile(0.99) / 1e6))
+                    .append(prefix).append(String.format("maxMillis=%.3f%n", shard.latencies.max() / 1e6));
+            if (slowest == null || shard.latencies.percentile(0.99) > slowest.latencies.percentile(0.99)) {
+                slowest = shard;
+            }
+        }
+        stats.append("shards.slowest=").append(slowest.index).append('\n'); // by p99
+        return stats.toString();
+    }
+
+    private class SearchHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange httpExchange) {
+            URI uri = httpExchange.getRequestURI();
+            // answered from the HttpClient's thread once every shard is in, so no pool thread waits on the fan-out
+            search(uri.getRawQuery(), uri.getQuery()).whenComplete((counts, error) -> {
+                try {
+                    if (error != null || counts == null) {
+                        httpExchange.sendResponseHeaders(error != null ? 502 : 400, -1);
+                        httpExchange.close();
+                        return;
+                    }
+                    StringBuilder body = new StringBuilder();
+                    for (long count : counts) {
+                        body.append(count).append(counts.length > 1 ? "\n" : ""); // same shape as a single server
+                    }
+                    respond(httpExchange, body.toString());
+                } catch (IOException e) {
+                    httpExchange.close();
+                }
+            });
+        }
+    }
+
+    private class ShardsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange httpExchange) throws IOException {
+            respond(httpExchange, shardStats());
+        }
+    }
+
+    private static void respond(HttpExchange httpExchange, String body) throws IOException {
+        byte[] response = body.getBytes(StandardCharsets.UTF_8);
+        httpExchange.sendResponseHeaders(200, response.length);
+        OutputStream outputStream = httpExchange.getResponseBody();
+        outputStream.write(response);
+        outputStream.close();
+    }
+
+    /**
+     * {@code [file] [--shards=N] [--port=P] [--worker-port=P] [worker options...]}; any other {@code --option} (e.g.
+     * {@code --mode=suffix_array}) is handed to every worker.
+     */
+    public static void main(String[] args) throws Exception {
+        ThroughPutHttpServer.enableTcpNoDelay();
+        String inputFile = INPUT_FILE;
+        int shardCount = SHARDS;
+        int port = PORT;
+        int firstWorkerPort = FIRST_WORKER_PORT;
+        List<String> workerArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                inputFile = arg;
+            } else if (arg.startsWith("--shards=")) {
+                shardCount = Integer.parseInt(arg.substring("--shards=".length()));
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--worker-port=")) {
+                firstWorkerPort = Integer.parseInt(arg.substring("--worker-port=".length()));
+            } else {
+                workerArgs.add(arg);
+            }
+        }
+        Path path = Paths.get(inputFile);
+        ShardedSearchCoordinator coordinator = new ShardedSearchCoordinator(Corpus.map(path), shardCount, firstWorkerPort);
+        coordinator.startWorkers(path, workerArgs);
+        coordinator.startServer(port, Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,239 @@
+package performance_optimisations;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Suffix array over the corpus bytes. Every occurrence of a substring is the prefix of a suffix, and those suffixes
+ * are contiguous in sorted order, so a count is two binary searches: O(m log n) for a pattern of m bytes.
+ * <p>
+ * Construction buckets the suffixes by their first two bytes in one pass, then sorts the buckets with a multikey
+ * (3-way radix) quicksort on a {@link ForkJoinPool}; large partitions are forked again so one hot bucket doesn't
+ * serialize the build. The array costs 4 bytes per corpus byte, so corpora are limited to 2 GB.
+ */
+public class SuffixArrayIndex {
+    private static final int BUCKETS = 256 * 257; // first byte x (second byte or end of text)
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    private static final int FORK_THRESHOLD = 1 << 14;
+
+    private final Corpus corpus;
+    private final IntBuffer suffixes;
+
+    public SuffixArrayIndex(Corpus corpus, IntBuffer suffixes) {
+        this.corpus = corpus;
+        this.suffixes = suffixes;
+    }
+
+    public static SuffixArrayIndex build(Corpus corpus, ForkJoinPool pool) {
+        if (corpus.length() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Suffix array supports corpora up to 2 GB, got " + corpus.length() + " bytes");
+        }
+        int n = (int) corpus.length();
+        int[] bucketStart = new int[BUCKETS + 1];
+        for (int i = 0; i < n; i++) {
+            bucketStart[bucket(corpus, i, n) + 1]++;
+        }
+        for (int b = 0; b < BUCKETS; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        int[] sa = new int[n];
+        int[] next = bucketStart.clone();
+        for (int i = 0; i < n; i++) {
+            sa[next[bucket(corpus, i, n)]++] = i;
+        }
+        pool.invoke(new BucketsTask(corpus, sa, bucketStart, 0, BUCKETS));
+        return new SuffixArrayIndex(corpus, IntBuffer.wrap(sa));
+    }
+
+    public long count(byte[] pattern) {
+        return count(pattern, pattern.length);
+    }
+
+    // the first length bytes of pattern, so callers can reuse one buffer for every lookup
+    public long count(byte[] pattern, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        return bound(pattern, length, true) - bound(pattern, length, false);
+    }
+
+    public int size() {
+        return suffixes.limit();
+    }
+
+    public IntBuffer suffixes() {
+        return suffixes.duplicate();
+    }
+
+    // first suffix that compares greater than the pattern (upper) or not less than it (lower)
+    private int bound(byte[] pattern, int length, boolean upper) {
+        int lo = 0;
+        int hi = suffixes.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = comparePrefix(suffixes.get(mid), pattern, length);
+            if (cmp < 0 || (upper && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // compares the suffix with the pattern, looking at no more than length bytes
+    private int comparePrefix(int suffix, byte[] pattern, int length) {
+        long n = corpus.length();
+        for (int j = 0; j < length; j++) {
+            if (suffix + j >= n) {
+                return -1; // the suffix is a proper prefix of the pattern
+            }
+            int diff = (corpus.get(suffix + j) & 0xFF) - (pattern[j] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private static int bucket(Corpus corpus, int i, int n) {
+        int second = i + 1 < n ? (corpus.get(i + 1) & 0xFF) + 1 : 0; // the end of the text sorts first
+        return (corpus.get(i) & 0xFF) * 257 + second;
+    }
+
+    // the byte of suffix at depth, or -1 once the suffix has ended
+    private static int byteAt(Corpus corpus, int suffix, int depth, int n) {
+        long index = (long) suffix + depth;
+        return index < n ? corpus.get(index) & 0xFF : -1;
+    }
+
+    private static class BucketsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Corpus corpus;
+        private final int[] sa;
+        private final int[] bucketStart;
+        private final int fromBucket;
+        private final int toBucket;
+
+        BucketsTask(Corpus corpus, int[] sa, int[] bucketStart, int fromBucket, int toBucket) {
+            this.corpus = corpus;
+            this.sa = sa;
+            this.bucketStart = bucketStart;
+            this.fromBucket = fromBucket;
+            this.toBucket = toBucket;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBucket - fromBucket > 1 && bucketStart[toBucket] - bucketStart[fromBucket] > FORK_THRESHOLD) {
+                int middle = (fromBucket + toBucket) >>> 1;
+                invokeAll(new BucketsTask(corpus, sa, bucketStart, fromBucket, middle),
+                        new BucketsTask(corpus, sa, bucketStart, middle, toBucket));
+                return;
+            }
+            for (int b = fromBucket; b < toBucket; b++) {
+                if (bucketStart[b + 1] - bucketStart[b] > 1) {
+                    new SortTask(corpus, sa, bucketStart[b], bucketStart[b + 1], 2).compute(); // 2 bytes already sorted
+                }
+            }
+        }
+    }
+
+    /**
+     * Multikey quicksort of sa[from, to) on the suffix bytes from {@code startDepth} onwards.
+     */
+    private static class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Corpus corpus;
+        private final int[] sa;
+        private final int n;
+        private final int from;
+        private final int to;
+        private final int startDepth;
+
+        SortTask(Corpus corpus, int[] sa, int from, int to, int startDepth) {
+            this.corpus = corpus;
+            this.sa = sa;
+            this.n = sa.length;
+            this.from = from;
+            this.to = to;
+            this.startDepth = startDepth;
+        }
+
+        @Override
+        protected void compute() {
+            List<SortTask> forked = new ArrayList<>();
+            int lo = from;
+            int hi = to;
+            int depth = startDepth;
+            while (hi - lo > INSERTION_SORT_THRESHOLD) {
+                int pivot = byteAt(corpus, sa[lo + (hi - lo) / 2], depth, n);
+                int lt = lo;
+                int gt = hi;
+                int i = lo;
+                while (i < gt) {
+                    int b = byteAt(corpus, sa[i], depth, n);
+                    if (b < pivot) {
+                        swap(lt++, i++);
+                    } else if (b > pivot) {
+                        swap(i, --gt);
+                    } else {
+                        i++;
+                    }
+                }
+                sortOrFork(lo, lt, depth, forked);
+                sortOrFork(gt, hi, depth, forked);
+                if (pivot < 0) {
+                    lo = hi; // at most one suffix ends at this depth, so the middle run is already in place
+                    break;
+                }
+                lo = lt; // iterate on the equal run one byte deeper instead of recursing
+                hi = gt;
+                depth++;
+            }
+            insertionSort(lo, hi, depth);
+            for (SortTask task : forked) {
+                task.join();
+            }
+        }
+
+        private void sortOrFork(int lo, int hi, int depth, List<SortTask> forked) {
+            if (hi - lo > FORK_THRESHOLD) {
+                SortTask task = new SortTask(corpus, sa, lo, hi, depth);
+                task.fork();
+                forked.add(task);
+            } else if (hi - lo > 1) {
+                new SortTask(corpus, sa, lo, hi, depth).compute();
+            }
+        }
+
+        private void insertionSort(int lo, int hi, int depth) {
+            for (int i = lo + 1; i < hi; i++) {
+                for (int j = i; j > lo && less(sa[j], sa[j - 1], depth); j--) {
+                    swap(j, j - 1);
+                }
+            }
+        }
+
+        private boolean less(int a, int b, int depth) {
+            for (int d = depth; ; d++) {
+                int x = byteAt(corpus, a, d, n);
+                int y = byteAt(corpus, b, d, n);
+                if (x != y) {
+                    return x < y;
+                }
+            }
+        }
+
+        private void swap(int i, int j) {
+            int tmp = sa[i];
+            sa[i] = sa[j];
+            sa[j] = tmp;
+        }
+    }
+}
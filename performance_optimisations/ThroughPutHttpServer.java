@@ -7,64 +7,705 @@ import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.concurrent.Executor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 public class ThroughPutHttpServer {
     private static final String INPUT_FILE = "";
     private static final int NUMBER_OF_THREADS = 6;
+    private static final int PORT = 8000;
+
+    public enum SearchMode {
+        INDEX, // whole-word lookups against a word -> count table built once at startup
+        SCAN, // substring count by scanning the whole text on every request
+        SUFFIX_ARRAY // substring count by binary search over a suffix array built once at startup
+    }
+
+    public enum Engine {
+        JDK, // com.sun.net.httpserver.HttpServer, one pool thread per in-flight exchange
+        NIO // NioSearchServer, a few selector event loops multiplexing every connection
+    }
+
+    public enum ExecutorKind {
+        FIXED, // a fixed pool of --threads platform threads
+        WORK_STEALING, // a ForkJoinPool with --threads workers
+        VIRTUAL // a new virtual thread per exchange (JDK 21+), so slow clients don't pin pool threads
+    }
 
     public static void main(String[] args) throws IOException {
-        String text = new String(Files.readAllBytes(Paths.get(INPUT_FILE)));
-        startServer(text);
+        enableTcpNoDelay();
+        ServerOptions options = ServerOptions.parse(args);
+        // mapped, so the text never lands on the heap
+        Corpus corpus = Corpus.map(Paths.get(options.inputFile), options.rangeFrom, options.rangeTo);
+        if (options.engine == Engine.NIO) {
+            startNioServer(corpus, options);
+        } else {
+            startServer(corpus, options);
+        }
+    }
+
+    /**
+     * Turns on TCP_NODELAY for every JDK HttpServer in this JVM: small responses otherwise sit behind Nagle + delayed
+     * ACK (~40ms each), which caps throughput long before the CPU. The server reads the property once, when the first
+     * one is created, so launchers call this at the top of main.
+     */
+    public static void enableTcpNoDelay() {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
     }
 
     public static void startServer(String text) throws IOException {
-        HttpServer server = HttpServer.create(new InetSocketAddress(8000), 0);
-        server.createContext("/search", new WordCountHandler(text)); // context assigns a handler to a particular http-route
-        Executor executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS); // thread pool creation
-        server.setExecutor(executor);
+        ServerOptions options = new ServerOptions();
+        options.mode = SearchMode.SCAN;
+        startServer(Corpus.wrap(text.getBytes(StandardCharsets.UTF_8)), options);
+    }
+
+    public static HttpServer startServer(Corpus corpus, ServerOptions options) throws IOException {
+        if (options.reusePort) {
+            // HttpServer.create binds straight away, so there's no point at which the option could be set
+            throw new UnsupportedOperationException("--reuse-port needs --engine=nio");
+        }
+        WordCountHandler handler = createHandler(corpus, options);
+        // before binding: an executor that can't be created (VIRTUAL before JDK 21) must not leave the port taken
+        ExecutorService executor = createExecutor(options.executor, options.threads); // thread pool creation
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(options.port), 0);
+        } catch (IOException e) {
+            executor.shutdown();
+            throw e;
+        }
+        AdmissionController admission = null;
+        UnaryOperator<HttpHandler> exempt = UnaryOperator.identity();
+        if (options.admissionMaxLimit > 0) {
+            admission = new AdmissionController(Math.min(options.threads * 2, options.admissionMaxLimit), 1, options.admissionMaxLimit);
+            server.createContext("/search", admission.guard(handler)); // context assigns a handler to a particular http-route
+            server.setExecutor(admission.gate(executor));
+            exempt = admission::exempt;
+        } else {
+            server.createContext("/search", handler);
+            server.setExecutor(executor);
+        }
+        server.createContext("/top", exempt.apply(new TopHandler(handler)));
+        server.createContext("/phrase", exempt.apply(new PhraseHandler(handler)));
+        server.createContext("/stats", exempt.apply(new StatsHandler(handler, admission)));
+        if (handler.adminEnabled()) {
+            server.createContext("/admin/corpus", exempt.apply(new AdminHandler(handler)));
+        }
+        server.start();
+        return server;
+    }
+
+    public static NioSearchServer startNioServer(Corpus corpus, ServerOptions options) throws IOException {
+        NioSearchServer server = new NioSearchServer(createHandler(corpus, options), options.port, options.eventLoops,
+                options.threads, options.reusePort);
         server.start();
+        return server;
+    }
+
+    public static ExecutorService createExecutor(ExecutorKind kind, int threads) {
+        switch (kind) {
+            case WORK_STEALING:
+                return Executors.newWorkStealingPool(threads);
+            case VIRTUAL:
+                try {
+                    // looked up reflectively so the class still compiles and runs (without this option) on older JDKs
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new UnsupportedOperationException("Virtual threads need JDK 21 or later", e);
+                }
+            default:
+                return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    /**
+     * The command line that starts another server JVM like this one (same java binary and class path); callers append
+     * the server arguments.
+     */
+    static List<String> workerCommand() {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        return new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"), ThroughPutHttpServer.class.getName()));
+    }
+
+    static WordCountHandler createHandler(Corpus corpus, ServerOptions options) throws IOException {
+        ParallelSearch search = new ParallelSearch(options.scanPolicy, options.parallelThreshold);
+        CorpusView view = options.snapshot != null
+                ? IndexSnapshot.loadOrBuild(Paths.get(options.snapshot), corpus, options.mode, options.cacheSize)
+                : CorpusView.build(corpus, options.mode, options.cacheSize, 0);
+        TopWords.Settings topWords = options.topWords();
+        Path adminRoot = options.adminRoot != null ? Paths.get(options.adminRoot).toRealPath() : null;
+        return new WordCountHandler(view, options.mode, search, options.cacheSize, options.allocationFree, topWords, adminRoot);
+    }
+
+    /**
+     * Command line options, given as {@code --name=value}; a bare argument is taken as the corpus file.
+     */
+    public static class ServerOptions {
+        public String inputFile = INPUT_FILE;
+        public int port = PORT;
+        public SearchMode mode = SearchMode.INDEX;
+        public ParallelSearch.Policy scanPolicy = ParallelSearch.Policy.THROUGHPUT;
+        public long parallelThreshold = 64L << 20;
+        public Engine engine = Engine.JDK;
+        public ExecutorKind executor = ExecutorKind.FIXED;
+        public int threads = NUMBER_OF_THREADS;
+        public int eventLoops = Runtime.getRuntime().availableProcessors();
+        public int cacheSize = 0; // 0 disables the result cache
+        public int admissionMaxLimit = 0; // 0 disables admission control (JDK engine only)
+        public boolean allocationFree = false;
+        public String snapshot = null; // index snapshot file: mapped on startup if it matches the corpus, else written
+        public long rangeFrom = 0; // serve only bytes [rangeFrom, rangeTo) of the file, as a shard worker does
+        public long rangeTo = Long.MAX_VALUE;
+        public int topCapacity = TopWords.Settings.DEFAULT.capacity; // largest k /top answers
+        public int sketchWidth = TopWords.Settings.DEFAULT.width; // Count-Min sketch behind /top, power of two
+        public int sketchDepth = TopWords.Settings.DEFAULT.depth;
+        public boolean reusePort = false; // bind with SO_REUSEPORT so sibling processes can share the port (NIO engine only)
+        public String adminRoot = null; // directory /admin/corpus may read files from; null leaves the route off
+
+        public static ServerOptions parse(String[] args) {
+            ServerOptions options = new ServerOptions();
+            for (String arg : args) {
+                if (!arg.startsWith("--")) {
+                    options.inputFile = arg;
+                    continue;
+                }
+                int separator = arg.indexOf('=');
+                String name = separator < 0 ? arg.substring(2) : arg.substring(2, separator);
+                String value = separator < 0 ? "" : arg.substring(separator + 1);
+                switch (name) {
+                    case "port":
+                        options.port = Integer.parseInt(value);
+                        break;
+                    case "mode":
+                        options.mode = SearchMode.valueOf(value.toUpperCase());
+                        break;
+                    case "scan-policy":
+                        options.scanPolicy = ParallelSearch.Policy.valueOf(value.toUpperCase());
+                        break;
+                    case "parallel-threshold":
+                        options.parallelThreshold = Long.parseLong(value);
+                        break;
+                    case "executor":
+                        options.executor = ExecutorKind.valueOf(value.toUpperCase());
+                        break;
+                    case "threads":
+                        options.threads = Integer.parseInt(value);
+                        break;
+                    case "engine":
+                        options.engine = Engine.valueOf(value.toUpperCase());
+                        break;
+                    case "event-loops":
+                        options.eventLoops = Integer.parseInt(value);
+                        break;
+                    case "cache-size":
+                        options.cacheSize = Integer.parseInt(value);
+                        break;
+                    case "allocation-free":
+                        options.allocationFree = value.isEmpty() || Boolean.parseBoolean(value);
+                        break;
+                    case "range":
+                        options.rangeFrom = Long.parseLong(value.substring(0, value.indexOf(':')));
+                        options.rangeTo = Long.parseLong(value.substring(value.indexOf(':') + 1));
+                        break;
+                    case "top-capacity":
+                        options.topCapacity = Integer.parseInt(value);
+                        break;
+                    case "sketch-width":
+                        options.sketchWidth = Integer.parseInt(value);
+                        break;
+                    case "sketch-depth":
+                        options.sketchDepth = Integer.parseInt(value);
+                        break;
+                    case "reuse-port":
+                        options.reusePort = value.isEmpty() || Boolean.parseBoolean(value);
+                        break;
+                    case "snapshot":
+                        options.snapshot = value;
+                        break;
+                    case "admin-root":
+                        options.adminRoot = value;
+                        break;
+                    case "admission-max-limit":
+                        options.admissionMaxLimit = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            options.topWords(); // bad sketch flags fail here rather than on every /top
+            return options;
+        }
+
+        public TopWords.Settings topWords() {
+            return new TopWords.Settings(topCapacity, sketchWidth, sketchDepth);
+        }
     }
 
     public static class WordCountHandler implements HttpHandler {
-        private final String text;
+        private final SearchMode mode;
+        private final ParallelSearch search;
+        private final int cacheSize;
+        private final AtomicReference<CorpusView> view;
+        private final ExecutorService updater; // one thread, so reloads and appends apply in the order they arrive
+        private final AtomicInteger pendingUpdates = new AtomicInteger();
+        private final boolean allocationFree;
+        private final TopWords.Settings topWords;
+        private final Path adminRoot; // null: no /admin/corpus
+
+        private static final int MAX_ALLOCATION_FREE_WORD = 1024;
+        // a batch scan builds a 256-wide transition row per pattern byte, so batches are capped: 4 KB is a 4 MB table
+        private static final int MAX_BATCH_WORDS = 256;
+        private static final int MAX_BATCH_BYTES = 4096;
+        // per platform thread; note that a virtual-thread executor gets a fresh one per exchange
+        private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
 
         public WordCountHandler(String text) {
-            this.text = text;
+            this(Corpus.wrap(text.getBytes(StandardCharsets.UTF_8)), SearchMode.SCAN,
+                    new ParallelSearch(ParallelSearch.Policy.THROUGHPUT, Long.MAX_VALUE), 0, false);
+        }
+
+        public WordCountHandler(Corpus corpus, SearchMode mode, ParallelSearch search, int cacheSize, boolean allocationFree) {
+            this(CorpusView.build(corpus, mode, cacheSize, 0), mode, search, cacheSize, allocationFree, TopWords.Settings.DEFAULT, null);
+        }
+
+        /**
+         * @param adminRoot the only directory (a real path) {@code /admin/corpus} may read files from, or null to turn
+         *                  the route off
+         */
+        public WordCountHandler(CorpusView initialView, SearchMode mode, ParallelSearch search, int cacheSize,
+                                boolean allocationFree, TopWords.Settings topWords, Path adminRoot) {
+            this.mode = mode;
+            this.adminRoot = adminRoot;
+            this.topWords = topWords;
+            this.allocationFree = allocationFree;
+            this.search = search;
+            this.cacheSize = cacheSize;
+            this.view = new AtomicReference<>(initialView);
+            this.updater = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "corpus-updater");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
 
         @Override
         public void handle(HttpExchange httpExchange) throws IOException {
-            String query = httpExchange.getRequestURI().getQuery();
-            String[] keyValue = query.split("=");
-            String action = keyValue[0];
-            String word = keyValue[1];
-            if (!action.equals("word")) {
-                httpExchange.sendResponseHeaders(400, 0);
+            if (allocationFree && handleWithoutAllocating(httpExchange)) {
+                return;
+            }
+            byte[] response = search(httpExchange.getRequestURI().getQuery());
+            if (response == null) {
+                httpExchange.sendResponseHeaders(400, -1);
+                httpExchange.close();
                 return;
             }
-            long count = countWord(word);
-            byte[] response = Long.toString(count).getBytes();
             httpExchange.sendResponseHeaders(200, response.length);
             OutputStream outputStream = httpExchange.getResponseBody();
             outputStream.write(response);
             outputStream.close();
         }
 
-        private long countWord(String word) {
-            long count = 0;
-            int index = 0;
-            while (index >= 0) {
-                index = text.indexOf(word, index);
-                if (index >= 0) {
-                    count++;
-                    index++;
+        /**
+         * Zero-garbage path for a single {@code word=} query: the word is percent-decoded straight from the raw URI
+         * into a per-thread buffer, counted without building a String or a pattern array, and the digits are written
+         * from another per-thread buffer. The result cache (String keys) and split scans (fork/join tasks) would
+         * allocate, so neither is used here. Anything unusual - batches, non-ASCII or malformed escapes, very long
+         * words - returns false and takes the regular path.
+         */
+        private boolean handleWithoutAllocating(HttpExchange httpExchange) throws IOException {
+            String rawQuery = httpExchange.getRequestURI().getRawQuery(); // a field of the URI, not a copy
+            if (rawQuery == null || !rawQuery.startsWith("word=")) {
+                return false;
+            }
+            Scratch scratch = SCRATCH.get();
+            int length = decode(rawQuery, 5, scratch.pattern);
+            if (length < 0) {
+                return false;
+            }
+            CorpusView current = view.get();
+            long count = -1;
+            if (current.wordIndex != null) {
+                count = current.wordIndex.count(scratch.pattern, length);
+            }
+            if (count < 0 && current.suffixArray != null) {
+                count = current.suffixArray.count(scratch.pattern, length);
+            }
+            if (count < 0) {
+                Corpus.shiftTable(scratch.pattern, length, scratch.shift);
+                count = current.corpus.count(scratch.pattern, length, scratch.shift, 0, current.corpus.length());
+            }
+            int start = writeDigits(count, scratch.digits);
+            httpExchange.sendResponseHeaders(200, scratch.digits.length - start);
+            OutputStream outputStream = httpExchange.getResponseBody();
+            outputStream.write(scratch.digits, start, scratch.digits.length - start);
+            outputStream.close();
+            return true;
+        }
+
+        // percent-decodes query[from..] into buffer; -1 if it needs the general path
+        private static int decode(String query, int from, byte[] buffer) {
+            int length = 0;
+            for (int i = from; i < query.length(); i++) {
+                char c = query.charAt(i);
+                if (length == buffer.length || c == '&' || c >= 0x80) {
+                    return -1;
+                }
+                if (c == '%') {
+                    if (i + 2 >= query.length()) {
+                        return -1;
+                    }
+                    int high = Character.digit(query.charAt(i + 1), 16);
+                    int low = Character.digit(query.charAt(i + 2), 16);
+                    if (high < 0 || low < 0) {
+                        return -1;
+                    }
+                    buffer[length++] = (byte) (high << 4 | low);
+                    i += 2;
+                } else {
+                    buffer[length++] = (byte) c;
+                }
+            }
+            return length;
+        }
+
+        // writes the decimal digits of a non-negative value at the end of buffer, returning where they start
+        static int writeDigits(long value, byte[] buffer) {
+            int position = buffer.length;
+            do {
+                buffer[--position] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            return position;
+        }
+
+        private static final class Scratch {
+            final byte[] pattern = new byte[MAX_ALLOCATION_FREE_WORD];
+            final int[] shift = new int[256];
+            final byte[] digits = new byte[20]; // Long.MAX_VALUE has 19
+        }
+
+        /**
+         * Answers a decoded {@code word=...} query, independent of the server engine in front of it.
+         *
+         * @return the response body, or null if the query is malformed or asks for more than {@value #MAX_BATCH_WORDS}
+         * words or {@value #MAX_BATCH_BYTES} bytes of them
+         */
+        public byte[] search(String query) {
+            if (query == null) {
+                return null;
+            }
+            String[] parameters = query.split("&");
+            if (parameters.length > MAX_BATCH_WORDS) {
+                return null;
+            }
+            String[] words = new String[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                int separator = parameters[i].indexOf('=');
+                if (separator < 0 || !parameters[i].substring(0, separator).equals("word")) {
+                    return null;
                 }
+                words[i] = parameters[i].substring(separator + 1);
             }
-            return count;
+            CorpusView current = view.get(); // read once: the whole request is answered from this view
+            if (words.length == 1) {
+                long count = current.cache != null
+                        ? current.cache.get(words[0], word -> countWord(current, word)) : countWord(current, words[0]);
+                return Long.toString(count).getBytes();
+            }
+            // batch: one count per line, in the order the words were asked for
+            int batchBytes = 0;
+            for (String word : words) {
+                batchBytes += word.getBytes(StandardCharsets.UTF_8).length;
+            }
+            if (batchBytes > MAX_BATCH_BYTES) {
+                return null;
+            }
+            StringBuilder response = new StringBuilder();
+            for (long count : countWords(current, words)) {
+                response.append(count).append('\n');
+            }
+            return response.toString().getBytes();
+        }
+
+        /**
+         * Schedules {@code action=load&path=...} (serve another file) or {@code action=append} (add the request body,
+         * or the file at {@code path}, to the current text). The new view is built on a background thread and swapped
+         * in atomically; requests keep being answered from the old one until then. Paths are resolved against the admin
+         * root and must not lead out of it.
+         *
+         * @return the response body, or null if the query is malformed, names a file outside the admin root, or admin is off
+         */
+        public byte[] update(String query, byte[] body) {
+            String action = parameter(query, "action");
+            String requested = parameter(query, "path");
+            Path path = adminPath(requested);
+            if (adminRoot == null || !"load".equals(action) && !"append".equals(action)
+                    || requested != null && path == null || "load".equals(action) && path == null) {
+                return null;
+            }
+            pendingUpdates.incrementAndGet();
+            updater.execute(() -> {
+                try {
+                    CorpusView current = view.get();
+                    CorpusView updated;
+                    if (action.equals("load")) {
+                        updated = CorpusView.build(Corpus.map(path), mode, cacheSize, current.generation + 1);
+                    } else {
+                        updated = current.append(path != null ? Files.readAllBytes(path) : body, cacheSize);
+                    }
+                    view.set(updated); // the only writer is this thread, so a plain set can't lose an update
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    pendingUpdates.decrementAndGet();
+                }
+            });
+            return ("scheduled " + action + "\n").getBytes();
+        }
+
+        /**
+         * Answers {@code k=N} (default 10, or the capacity if lower) with the N most frequent words, one {@code word count} pair per line.
+         *
+         * @return the response body, or null if k is malformed or above the configured capacity
+         */
+        public byte[] top(String query) {
+            String k = parameter(query, "k");
+            int n;
+            try {
+                n = k != null ? Integer.parseInt(k) : Math.min(10, topWords.capacity);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (n < 1 || n > topWords.capacity) {
+                return null;
+            }
+            StringBuilder response = new StringBuilder();
+            for (TopWords.Candidate candidate : view.get().topWords(topWords).top(n)) {
+                response.append(candidate.word).append(' ').append(candidate.count()).append('\n');
+            }
+            return response.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Answers {@code q=<phrase>} with how often its words occur in sequence, and {@code q=<words>&within=N} with
+         * how often each follows the previous within N words, both from the positional index.
+         *
+         * @return the response body, or null if the query is malformed
+         */
+        public byte[] phrase(String query) {
+            String phrase = parameter(query, "q");
+            String within = parameter(query, "within");
+            int gap;
+            try {
+                gap = within != null ? Integer.parseInt(within) : 1;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (phrase == null || gap < 1) {
+                return null;
+            }
+            long count = view.get().positionalIndex().count(phrase, gap);
+            return count < 0 ? null : Long.toString(count).getBytes();
+        }
+
+        public String stats() {
+            CorpusView current = view.get();
+            return "corpus.generation=" + current.generation + "\ncorpus.length=" + current.corpus.length()
+                    + "\ncorpus.pendingUpdates=" + pendingUpdates.get() + "\n"
+                    + (current.cache != null ? current.cache.toString() : "")
+                    + (current.positionalIndexIfBuilt() != null ? current.positionalIndexIfBuilt().toString() : "");
+        }
+
+        long countWord(CorpusView view, String word) {
+            byte[] pattern = word.getBytes(StandardCharsets.UTF_8);
+            if (view.wordIndex != null) {
+                long count = view.wordIndex.count(pattern);
+                if (count >= 0) {
+                    return count;
+                }
+                // not a single word (e.g. a phrase), so only the substring scan can answer it
+            }
+            if (view.suffixArray != null) {
+                return view.suffixArray.count(pattern);
+            }
+            return search.count(view.corpus, pattern); // byte-level Boyer-Moore-Horspool, split across cores if the policy allows
+        }
+
+        /**
+         * Counts several words at once. Whatever the cache or an index can answer is answered there; the rest are
+         * counted together in a single Aho-Corasick pass instead of one scan per word.
+         */
+        long[] countWords(CorpusView view, String[] words) {
+            long[] counts = new long[words.length];
+            int[] unresolved = new int[words.length];
+            int scans = 0;
+            for (int i = 0; i < words.length; i++) {
+                byte[] pattern = words[i].getBytes(StandardCharsets.UTF_8);
+                long count = view.wordIndex != null ? view.wordIndex.count(pattern) : -1;
+                if (count < 0 && view.suffixArray != null) {
+                    count = view.suffixArray.count(pattern);
+                }
+                if (count < 0 && view.cache != null) {
+                    count = view.cache.getIfPresent(words[i]);
+                }
+                if (count < 0) {
+                    unresolved[scans++] = i;
+                }
+                counts[i] = count;
+            }
+            if (scans > 0) {
+                byte[][] patterns = new byte[scans][];
+                for (int i = 0; i < scans; i++) {
+                    patterns[i] = words[unresolved[i]].getBytes(StandardCharsets.UTF_8);
+                }
+                long[] scanned = search.countAll(view.corpus, new AhoCorasick(patterns));
+                for (int i = 0; i < scans; i++) {
+                    counts[unresolved[i]] = scanned[i];
+                    if (view.cache != null) {
+                        view.cache.put(words[unresolved[i]], scanned[i]);
+                    }
+                }
+            }
+            return counts;
+        }
+
+        public boolean adminEnabled() {
+            return adminRoot != null;
+        }
+
+        // the real path of a regular file under the admin root, so neither ".." nor a symlink can lead out of it
+        private Path adminPath(String path) {
+            if (path == null || adminRoot == null) {
+                return null;
+            }
+            try {
+                Path file = adminRoot.resolve(path).toRealPath();
+                return file.startsWith(adminRoot) && Files.isRegularFile(file) ? file : null;
+            } catch (IOException | RuntimeException e) { // missing file, or not a path at all
+                return null;
+            }
+        }
+
+        private static String parameter(String query, String name) {
+            if (query == null) {
+                return null;
+            }
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith(name + "=")) {
+                    return parameter.substring(name.length() + 1);
+                }
+            }
+            return null;
+        }
+    }
+
+    public static class StatsHandler implements HttpHandler {
+        private final WordCountHandler handler;
+        private final AdmissionController admission;
+
+        public StatsHandler(WordCountHandler handler, AdmissionController admission) {
+            this.handler = handler;
+            this.admission = admission;
+        }
+
+        @Override
+        public void handle(HttpExchange httpExchange) throws IOException {
+            String stats = handler.stats() + (admission != null ? admission.toString() : "");
+            byte[] response = stats.getBytes(StandardCharsets.UTF_8);
+            httpExchange.sendResponseHeaders(200, response.length);
+            OutputStream outputStream = httpExchange.getResponseBody();
+            outputStream.write(response);
+            outputStream.close();
+        }
+    }
+
+    public static class TopHandler implements HttpHandler {
+        private final WordCountHandler handler;
+
+        public TopHandler(WordCountHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void handle(HttpExchange httpExchange) throws IOException {
+            byte[] response = handler.top(httpExchange.getRequestURI().getQuery());
+            if (response == null) {
+                httpExchange.sendResponseHeaders(400, -1);
+                httpExchange.close();
+                return;
+            }
+            httpExchange.sendResponseHeaders(200, response.length);
+            OutputStream outputStream = httpExchange.getResponseBody();
+            outputStream.write(response);
+            outputStream.close();
+        }
+    }
+
+    public static class PhraseHandler implements HttpHandler {
+        private final WordCountHandler handler;
+
+        public PhraseHandler(WordCountHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void handle(HttpExchange httpExchange) throws IOException {
+            byte[] response = handler.phrase(httpExchange.getRequestURI().getQuery());
+            if (response == null) {
+                httpExchange.sendResponseHeaders(400, -1);
+                httpExchange.close();
+                return;
+            }
+            httpExchange.sendResponseHeaders(200, response.length);
+            OutputStream outputStream = httpExchange.getResponseBody();
+            outputStream.write(response);
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Answers loopback clients only: the route swaps what every other client is served.
+     */
+    public static class AdminHandler implements HttpHandler {
+        public static final int MAX_BODY = 16 << 20; // the largest action=append body
+        private final WordCountHandler handler;
+
+        public AdminHandler(WordCountHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void handle(HttpExchange httpExchange) throws IOException {
+            if (!httpExchange.getRemoteAddress().getAddress().isLoopbackAddress()) {
+                httpExchange.sendResponseHeaders(403, -1);
+                httpExchange.close();
+                return;
+            }
+            byte[] body = httpExchange.getRequestBody().readNBytes(MAX_BODY + 1);
+            if (body.length > MAX_BODY) {
+                httpExchange.sendResponseHeaders(413, -1);
+                httpExchange.close();
+                return;
+            }
+            byte[] response = handler.update(httpExchange.getRequestURI().getQuery(), body);
+            if (response == null) {
+                httpExchange.sendResponseHeaders(400, -1);
+                httpExchange.close();
+                return;
+            }
+            httpExchange.sendResponseHeaders(202, response.length);
+            OutputStream outputStream = httpExchange.getResponseBody();
+            outputStream.write(response);
+            outputStream.close();
         }
     }
 }
@@ -0,0 +1,144 @@
+package performance_optimisations;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a per-tile action over every pixel of an image on a {@link ForkJoinPool}. The image is cut into tiles small
+ * enough that a tile's pixels stay in the L2 cache while it is processed, and into enough of them that idle workers
+ * always have something to steal, so one slow region doesn't hold the whole call up. Tiles at the right and bottom
+ * edges are simply smaller; every pixel is covered exactly once.
+ */
+public class TileScheduler {
+    private static final long DEFAULT_CACHE_BYTES = 256 * 1024;
+    private static final long CACHE_BYTES = detectCacheBytes();
+    private static final int TILES_PER_WORKER = 4;
+    // pools are kept for good, so parallelism is clamped to this: at most this many pools, whatever callers pass in
+    private static final int MAX_PARALLELISM = Math.max(64, 2 * Runtime.getRuntime().availableProcessors());
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    public interface TileAction {
+        void apply(int left, int top, int width, int height);
+    }
+
+    /**
+     * A pool with {@code parallelism} workers (clamped to [1, {@link #MAX_PARALLELISM}]), created on first use and
+     * shared by every later call with the same parallelism. The workers are daemon threads and retire once idle, so a
+     * pool nobody uses any more holds no threads.
+     */
+    public static ForkJoinPool pool(int parallelism) {
+        return POOLS.computeIfAbsent(Math.max(1, Math.min(MAX_PARALLELISM, parallelism)), ForkJoinPool::new);
+    }
+
+    /**
+     * Applies {@code action} to every tile of a {@code width} x {@code height} image and returns when all are done.
+     * {@code bytesPerPixel} is what the action touches per pixel (e.g. 8 for an int source and an int result).
+     */
+    public static void run(ForkJoinPool pool, int width, int height, int bytesPerPixel, TileAction action) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        int[] tile = tileSize(width, height, bytesPerPixel, pool.getParallelism());
+        run(pool, width, height, tile[0], tile[1], action);
+    }
+
+    /**
+     * The same with a caller-chosen tile size, e.g. square tiles for neighbourhood filters whose cost per tile grows
+     * with its perimeter.
+     */
+    public static void run(ForkJoinPool pool, int width, int height, int tileWidth, int tileHeight, TileAction action) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        int[] tile = {Math.max(1, Math.min(width, tileWidth)), Math.max(1, Math.min(height, tileHeight))};
+        pool.invoke(new TileTask(width, height, tile[0], tile[1], action, 0, tiles(width, height, tile)));
+    }
+
+    static long cacheBytes() {
+        return CACHE_BYTES;
+    }
+
+    /**
+     * {width, height} of a tile. Whole rows are preferred, since a row is contiguous in memory; rows that alone are
+     * too big for the cache are cut into columns. Tiles then shrink further if there would be too few to balance.
+     */
+    static int[] tileSize(int width, int height, int bytesPerPixel, int parallelism) {
+        long pixelsInCache = Math.max(1, CACHE_BYTES / Math.max(1, bytesPerPixel));
+        int tileWidth = (int) Math.min(width, pixelsInCache);
+        int tileHeight = (int) Math.max(1, Math.min(height, pixelsInCache / Math.max(1, tileWidth)));
+        long wanted = (long) parallelism * TILES_PER_WORKER;
+        while (tileHeight > 1 && tiles(width, height, new int[]{tileWidth, tileHeight}) < wanted) {
+            tileHeight = (tileHeight + 1) / 2;
+        }
+        return new int[]{Math.max(1, tileWidth), tileHeight};
+    }
+
+    private static int tiles(int width, int height, int[] tile) {
+        return columns(width, tile[0]) * ((height + tile[1] - 1) / tile[1]);
+    }
+
+    private static int columns(int width, int tileWidth) {
+        return (width + tileWidth - 1) / tileWidth;
+    }
+
+    // L2 size from sysfs on Linux; elsewhere a typical 256 KB
+    private static long detectCacheBytes() {
+        for (int index = 0; index < 8; index++) {
+            Path directory = Paths.get("/sys/devices/system/cpu/cpu0/cache/index" + index);
+            try {
+                if (Files.readString(directory.resolve("level")).trim().equals("2")) {
+                    String size = Files.readString(directory.resolve("size")).trim(); // e.g. "1024K"
+                    long multiplier = size.endsWith("K") ? 1024 : size.endsWith("M") ? 1024 * 1024 : 1;
+                    return Long.parseLong(size.replaceAll("[^0-9]", "")) * multiplier;
+                }
+            } catch (IOException | RuntimeException e) {
+                break;
+            }
+        }
+        return DEFAULT_CACHE_BYTES;
+    }
+
+    /**
+     * Tiles [from, to) in row-major order, halved until a single tile is left.
+     */
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int width;
+        private final int height;
+        private final int tileWidth;
+        private final int tileHeight;
+        private final TileAction action;
+        private final int from;
+        private final int to;
+
+        TileTask(int width, int height, int tileWidth, int tileHeight, TileAction action, int from, int to) {
+            this.width = width;
+            this.height = height;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                int columns = columns(width, tileWidth);
+                int left = (from % columns) * tileWidth;
+                int top = (from / columns) * tileHeight;
+                action.apply(left, top, Math.min(tileWidth, width - left), Math.min(tileHeight, height - top));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TileTask(width, height, tileWidth, tileHeight, action, from, middle),
+                    new TileTask(width, height, tileWidth, tileHeight, action, middle, to));
+        }
+    }
+}
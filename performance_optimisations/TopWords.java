@@ -0,0 +1,262 @@
+package performance_optimisations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The most frequent words of a corpus, in memory that doesn't grow with the vocabulary: word counts live in a
+ * {@link CountMinSketch} and only the {@code capacity} best candidates are kept as actual words, in a min-heap keyed
+ * by their estimate.
+ * <p>
+ * Built in one pass split across a {@link ForkJoinPool}: each segment streams its words into its own sketch and heap,
+ * and joining two segments merges the sketches and re-ranks the union of their candidates against the merged counts.
+ * Appending text runs the same pass over the new bytes only and merges the result into a copy of this sketch.
+ * Counts are sketch estimates, so they may be slightly high but never low.
+ */
+public class TopWords {
+    private static final long MIN_SEGMENT_SIZE = 1 << 20;
+    private static final Comparator<Candidate> BY_COUNT = Comparator.comparingLong((Candidate c) -> c.estimate).reversed();
+
+    private final Settings settings;
+    private final CountMinSketch sketch;
+    private final List<Candidate> ranked; // at most capacity, most frequent first
+
+    /**
+     * Capacity is the largest k that can be asked for; width and depth size the sketch.
+     */
+    public static class Settings {
+        public static final Settings DEFAULT = new Settings(1000, 1 << 15, 4);
+
+        final int capacity;
+        final int width;
+        final int depth;
+
+        public Settings(int capacity, int width, int depth) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Top words capacity must be at least 1, got " + capacity);
+            }
+            CountMinSketch.checkSize(width, depth);
+            this.capacity = capacity;
+            this.width = width;
+            this.depth = depth;
+        }
+    }
+
+    public static class Candidate {
+        public final String word;
+        final long hash;
+        long estimate;
+        long queuedEstimate; // the estimate when it was put in the heap; the heap is fixed up lazily
+
+        Candidate(String word, long hash, long estimate) {
+            this.word = word;
+            this.hash = hash;
+            this.estimate = estimate;
+        }
+
+        public long count() {
+            return estimate;
+        }
+    }
+
+    private TopWords(Settings settings, CountMinSketch sketch, List<Candidate> ranked) {
+        this.settings = settings;
+        this.sketch = sketch;
+        this.ranked = ranked;
+    }
+
+    public static TopWords build(Corpus corpus, Settings settings, ForkJoinPool pool) {
+        Partial partial = scan(corpus, 0, settings, pool);
+        return new TopWords(settings, partial.sketch, partial.ranked());
+    }
+
+    /**
+     * Returns the top words of {@code corpus}, which is this one's corpus with text appended after {@code oldLength}.
+     * A word cut in two by the append is taken out of the sketch and re-counted as the joined word, as in
+     * {@link WordIndex#withAppended}.
+     */
+    public TopWords withAppended(Corpus corpus, long oldLength, ForkJoinPool pool) {
+        CountMinSketch merged = sketch.copy();
+        long start = oldLength;
+        if (oldLength > 0 && oldLength < corpus.length()
+                && WordIndex.isWordAt(corpus, oldLength - 1) && WordIndex.isWordAt(corpus, oldLength)) {
+            while (start > 0 && WordIndex.isWordAt(corpus, start - 1)) {
+                start--;
+            }
+            merged.add(WordIndex.hash(corpus, start, oldLength), -1);
+        }
+        Partial appended = scan(corpus, start, settings, pool);
+        merged.merge(appended.sketch);
+        Map<Long, Candidate> union = new HashMap<>();
+        for (Candidate candidate : ranked) {
+            union.put(candidate.hash, new Candidate(candidate.word, candidate.hash, 0));
+        }
+        for (Candidate candidate : appended.candidates.values()) {
+            union.putIfAbsent(candidate.hash, candidate);
+        }
+        return new TopWords(settings, merged, rank(union.values(), merged, settings.capacity));
+    }
+
+    /**
+     * The {@code k} most frequent words, most frequent first; k is capped at the capacity.
+     */
+    public List<Candidate> top(int k) {
+        return ranked.subList(0, Math.min(k, ranked.size()));
+    }
+
+    public int capacity() {
+        return settings.capacity;
+    }
+
+    private static Partial scan(Corpus corpus, long from, Settings settings, ForkJoinPool pool) {
+        long length = corpus.length() - from;
+        long segmentSize = Math.max(MIN_SEGMENT_SIZE, length / (pool.getParallelism() * 4L));
+        return pool.invoke(new ScanTask(corpus, from, corpus.length(), segmentSize, settings));
+    }
+
+    // re-estimates every candidate against the sketch and keeps the best capacity of them
+    private static List<Candidate> rank(Iterable<Candidate> candidates, CountMinSketch sketch, int capacity) {
+        List<Candidate> ranked = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            candidate.estimate = sketch.estimate(candidate.hash);
+            ranked.add(candidate);
+        }
+        ranked.sort(BY_COUNT);
+        return Collections.unmodifiableList(new ArrayList<>(ranked.subList(0, Math.min(capacity, ranked.size()))));
+    }
+
+    /**
+     * Sketch plus candidate heap for one stretch of text.
+     */
+    private static class Partial {
+        final int capacity;
+        final CountMinSketch sketch;
+        final Map<Long, Candidate> candidates = new HashMap<>();
+        final PriorityQueue<Candidate> heap = new PriorityQueue<>(Comparator.comparingLong((Candidate c) -> c.queuedEstimate));
+
+        Partial(Settings settings) {
+            this.capacity = settings.capacity;
+            this.sketch = new CountMinSketch(settings.width, settings.depth);
+        }
+
+        // words that start in [from, to); the last one may run past to
+        void addWords(Corpus corpus, long from, long to) {
+            long length = corpus.length();
+            long i = from;
+            while (i > 0 && i < length && WordIndex.isWordAt(corpus, i - 1) && WordIndex.isWordAt(corpus, i)) {
+                i++; // the word under from belongs to the previous segment
+            }
+            while (i < to) {
+                while (i < to && !WordIndex.isWordAt(corpus, i)) {
+                    i++;
+                }
+                long start = i;
+                while (i < length && WordIndex.isWordAt(corpus, i)) {
+                    i++;
+                }
+                if (i > start) {
+                    offer(corpus, start, i);
+                }
+            }
+        }
+
+        private void offer(Corpus corpus, long start, long end) {
+            long hash = WordIndex.hash(corpus, start, end);
+            sketch.add(hash, 1);
+            long estimate = sketch.estimate(hash);
+            Candidate candidate = candidates.get(hash);
+            if (candidate != null) {
+                candidate.estimate = estimate; // estimates only grow, so the heap can catch up later
+                return;
+            }
+            if (candidates.size() == capacity) {
+                Candidate least = leastFrequent();
+                if (estimate <= least.estimate) {
+                    return;
+                }
+                heap.poll();
+                candidates.remove(least.hash);
+            }
+            add(new Candidate(word(corpus, start, end), hash, estimate));
+        }
+
+        private void add(Candidate candidate) {
+            candidate.queuedEstimate = candidate.estimate;
+            candidates.put(candidate.hash, candidate);
+            heap.add(candidate);
+        }
+
+        // the head of the heap after re-queuing entries whose estimate grew since they were queued
+        private Candidate leastFrequent() {
+            Candidate least;
+            while ((least = heap.peek()).queuedEstimate != least.estimate) {
+                heap.poll();
+                least.queuedEstimate = least.estimate;
+                heap.add(least);
+            }
+            return least;
+        }
+
+        void merge(Partial other) {
+            sketch.merge(other.sketch);
+            for (Candidate candidate : other.candidates.values()) {
+                candidates.putIfAbsent(candidate.hash, candidate);
+            }
+            List<Candidate> kept = rank(new ArrayList<>(candidates.values()), sketch, capacity);
+            candidates.clear();
+            heap.clear();
+            for (Candidate candidate : kept) {
+                add(candidate);
+            }
+        }
+
+        List<Candidate> ranked() {
+            return rank(candidates.values(), sketch, capacity);
+        }
+
+        private static String word(Corpus corpus, long start, long end) {
+            return new String(corpus.bytes(start, end), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class ScanTask extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final Corpus corpus;
+        private final long from;
+        private final long to;
+        private final long segmentSize;
+        private final Settings settings;
+
+        ScanTask(Corpus corpus, long from, long to, long segmentSize, Settings settings) {
+            this.corpus = corpus;
+            this.from = from;
+            this.to = to;
+            this.segmentSize = segmentSize;
+            this.settings = settings;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from <= segmentSize) {
+                Partial partial = new Partial(settings);
+                partial.addWords(corpus, from, to);
+                return partial;
+            }
+            long middle = from + (to - from) / 2;
+            ScanTask left = new ScanTask(corpus, from, middle, segmentSize, settings);
+            left.fork();
+            Partial partial = new ScanTask(corpus, middle, to, segmentSize, settings).compute();
+            partial.merge(left.join());
+            return partial;
+        }
+    }
+}
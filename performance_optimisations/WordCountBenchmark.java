@@ -0,0 +1,100 @@
+package performance_optimisations;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares requests/sec of the INDEX and SCAN search modes of {@link ThroughPutHttpServer} over loopback.
+ */
+public class WordCountBenchmark {
+    private static final String INPUT_FILE = "./performance_optimisations/resources/war_and_peace.txt";
+    private static final int PORT = 8001;
+    private static final int CLIENT_THREADS = 8;
+    private static final long WARMUP_MILLIS = 3000;
+    private static final long MEASURE_MILLIS = 10000;
+
+    public static void main(String[] args) throws Exception {
+        ThroughPutHttpServer.enableTcpNoDelay();
+        Path inputFile = Paths.get(args.length > 0 ? args[0] : INPUT_FILE);
+        Corpus corpus = Corpus.map(inputFile);
+        String[] words = sampleWords(new String(Files.readAllBytes(inputFile)), 1000);
+
+        for (ThroughPutHttpServer.SearchMode mode : ThroughPutHttpServer.SearchMode.values()) {
+            long startTime = System.currentTimeMillis();
+            ThroughPutHttpServer.ServerOptions options = new ThroughPutHttpServer.ServerOptions();
+            options.mode = mode;
+            options.port = PORT;
+            HttpServer server = ThroughPutHttpServer.startServer(corpus, options);
+            long startupMillis = System.currentTimeMillis() - startTime;
+            try {
+                run(words, WARMUP_MILLIS); // let the JIT settle before measuring
+                long requests = run(words, MEASURE_MILLIS);
+                System.out.printf("%-5s startup: %,d ms, throughput: %,.0f requests/sec%n",
+                        mode, startupMillis, requests * 1000.0 / MEASURE_MILLIS);
+            } finally {
+                server.stop(0);
+                ((ExecutorService) server.getExecutor()).shutdown();
+            }
+        }
+    }
+
+    private static long run(String[] words, long durationMillis) throws InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        LongAdder requests = new LongAdder();
+        long deadline = System.currentTimeMillis() + durationMillis;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < CLIENT_THREADS; i++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < deadline) {
+                    String word = words[random.nextInt(words.length)];
+                    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/search?word=" + word)).build();
+                    try {
+                        client.send(request, HttpResponse.BodyHandlers.discarding());
+                        requests.increment();
+                    } catch (IOException | InterruptedException e) {
+                        e.printStackTrace();
+                        return;
+                    }
+                }
+            });
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return requests.sum();
+    }
+
+    static String[] sampleWords(String text, int n) {
+        String[] tokens = text.split("[^\\p{L}\\p{N}]+");
+        String[] words = new String[n];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < n; i++) {
+            String word;
+            do {
+                word = tokens[random.nextInt(tokens.length)];
+            } while (word.isEmpty() || !word.chars().allMatch(c -> c < 128)); // keep the URIs plain ASCII
+            words[i] = word;
+        }
+        return words;
+    }
+}
@@ -0,0 +1,302 @@
+package performance_optimisations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Whole-word frequency table built once over the corpus. Words are keyed by their 64-bit FNV-1a hash in an
+ * open-addressing table of primitive longs, so a lookup is a hash of the query plus a probe or two - no boxing
+ * and no dependence on the corpus size. Each slot also keeps the word's bytes, compared whenever the hashes match,
+ * so two words with the same hash never share a count and an absent word never answers with another word's count.
+ */
+public class WordIndex {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long EMPTY = 0; // hashes equal to 0 are remapped, so 0 can mark a free slot
+
+    private long[] keys;
+    private long[] counts;
+    private byte[][] words; // the word in each used slot
+    private int mask;
+    private int size;
+
+    public WordIndex(int expectedWords) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedWords * 2 - 1)) << 1;
+        keys = new long[capacity];
+        counts = new long[capacity];
+        words = new byte[capacity][];
+        mask = capacity - 1;
+    }
+
+    private WordIndex(WordIndex other) {
+        keys = other.keys.clone();
+        counts = other.counts.clone();
+        words = other.words.clone(); // the byte arrays themselves are never modified, so they can be shared
+        mask = other.mask;
+        size = other.size;
+    }
+
+    public static WordIndex build(Corpus corpus) {
+        WordIndex index = new WordIndex(1 << 16);
+        index.addTokens(corpus, 0);
+        return index;
+    }
+
+    /**
+     * Returns a copy that also counts the text appended after {@code oldLength}; this index is left untouched.
+     * A word cut in two by the append (e.g. "Mos" + "cow") is taken out and re-counted as the joined word.
+     */
+    public WordIndex withAppended(Corpus corpus, long oldLength) {
+        WordIndex index = new WordIndex(this);
+        long start = oldLength;
+        if (oldLength > 0 && oldLength < corpus.length()
+                && isWordAt(corpus, oldLength - 1) && isWordAt(corpus, oldLength)) {
+            while (start > 0 && isWordAt(corpus, start - 1)) {
+                start--;
+            }
+            index.add(hash(corpus, start, oldLength), corpus, start, oldLength, -1);
+        }
+        index.addTokens(corpus, start);
+        return index;
+    }
+
+    private void addTokens(Corpus corpus, long from) {
+        long length = corpus.length();
+        long i = from;
+        while (i < length) {
+            while (i < length && !isWordAt(corpus, i)) {
+                i++;
+            }
+            long h = FNV_OFFSET;
+            long start = i;
+            while (i < length && isWordAt(corpus, i)) {
+                h = (h ^ (corpus.get(i) & 0xFF)) * FNV_PRIME; // hash while tokenizing
+                i++;
+            }
+            if (i > start) {
+                add(h == EMPTY ? 1 : h, corpus, start, i, 1);
+            }
+        }
+    }
+
+    /**
+     * Returns how many times {@code word} occurs as a whole word, or -1 if it isn't a single word
+     * (in which case the caller has to fall back to a substring scan).
+     */
+    public long count(String word) {
+        return count(word.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public long count(byte[] word) {
+        return count(word, word.length);
+    }
+
+    // the first length bytes of word, so callers can reuse one buffer for every lookup
+    public long count(byte[] word, int length) {
+        if (!isSingleWord(word, length)) {
+            return -1;
+        }
+        long key = hash(word, 0, length);
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key && Arrays.equals(words[slot], 0, words[slot].length, word, 0, length)) {
+                return counts[slot];
+            }
+            if (keys[slot] == EMPTY) {
+                return 0;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // sets the count of the first length bytes of word, for indexes restored from a snapshot
+    void put(byte[] word, int length, long count) {
+        long key = hash(word, 0, length);
+        int slot = slot(key);
+        while (keys[slot] != EMPTY && !(keys[slot] == key && Arrays.equals(words[slot], 0, words[slot].length, word, 0, length))) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) {
+            words[slot] = Arrays.copyOf(word, length);
+        }
+        counts[slot] = 0;
+        increment(slot, key, count);
+    }
+
+    /**
+     * Every word with a positive count, in no particular order.
+     */
+    List<byte[]> words() {
+        List<byte[]> result = new ArrayList<>(size);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY && counts[slot] > 0) {
+                result.add(words[slot]);
+            }
+        }
+        return result;
+    }
+
+    // adds delta to the count of the word in corpus bytes [from, to), whose hash is key
+    private void add(long key, Corpus corpus, long from, long to, long delta) {
+        int slot = slot(key);
+        while (keys[slot] != EMPTY && !(keys[slot] == key && equals(words[slot], corpus, from, to))) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) {
+            words[slot] = corpus.bytes(from, to);
+        }
+        increment(slot, key, delta);
+    }
+
+    private void increment(int slot, long key, long delta) {
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size++;
+        }
+        counts[slot] += delta;
+        if (size * 2 > keys.length) { // keep the load factor under 0.5 so probe chains stay short
+            resize();
+        }
+    }
+
+    static boolean equals(byte[] word, Corpus corpus, long from, long to) {
+        if (word.length != to - from) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            if (word[i] != corpus.get(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        byte[][] oldWords = words;
+        keys = new long[oldKeys.length * 2];
+        counts = new long[oldCounts.length * 2];
+        words = new byte[oldWords.length * 2][];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+                words[slot] = oldWords[i];
+            }
+        }
+    }
+
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    static long hash(byte[] bytes, int from, int to) {
+        long h = FNV_OFFSET;
+        for (int i = from; i < to; i++) {
+            h = (h ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+        }
+        return h == EMPTY ? 1 : h;
+    }
+
+    static long hash(Corpus corpus, long from, long to) {
+        long h = FNV_OFFSET;
+        for (long i = from; i < to; i++) {
+            h = (h ^ (corpus.get(i) & 0xFF)) * FNV_PRIME;
+        }
+        return h == EMPTY ? 1 : h;
+    }
+
+    /**
+     * Whether byte {@code i} belongs to a word: it is part of a letter or digit ({@link Character#isLetterOrDigit}).
+     * ASCII is classified directly; any other byte is decoded as the UTF-8 sequence it is part of, so accented letters
+     * count as word characters while curly quotes, dashes and other punctuation do not. Malformed sequences don't.
+     */
+    static boolean isWordAt(Corpus corpus, long i) {
+        byte b = corpus.get(i);
+        if (b >= 0) {
+            return isAsciiWordByte(b);
+        }
+        long start = i;
+        while (start > 0 && i - start < 3 && isContinuation(corpus.get(start))) {
+            start--; // back to the lead byte
+        }
+        int length = sequenceLength(corpus.get(start));
+        if (length == 0 || start + length <= i || start + length > corpus.length()) {
+            return false;
+        }
+        int codePoint = corpus.get(start) & (0x7F >> length);
+        for (long k = start + 1; k < start + length; k++) {
+            byte next = corpus.get(k);
+            if (!isContinuation(next)) {
+                return false;
+            }
+            codePoint = codePoint << 6 | next & 0x3F;
+        }
+        return Character.isLetterOrDigit(codePoint);
+    }
+
+    // the same for byte i of the first length bytes of bytes
+    static boolean isWordAt(byte[] bytes, int length, int i) {
+        byte b = bytes[i];
+        if (b >= 0) {
+            return isAsciiWordByte(b);
+        }
+        int start = i;
+        while (start > 0 && i - start < 3 && isContinuation(bytes[start])) {
+            start--;
+        }
+        int sequence = sequenceLength(bytes[start]);
+        if (sequence == 0 || start + sequence <= i || start + sequence > length) {
+            return false;
+        }
+        int codePoint = bytes[start] & (0x7F >> sequence);
+        for (int k = start + 1; k < start + sequence; k++) {
+            if (!isContinuation(bytes[k])) {
+                return false;
+            }
+            codePoint = codePoint << 6 | bytes[k] & 0x3F;
+        }
+        return Character.isLetterOrDigit(codePoint);
+    }
+
+    private static boolean isAsciiWordByte(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    // bytes in the UTF-8 sequence a lead byte starts, or 0 if it isn't one
+    private static int sequenceLength(byte lead) {
+        if ((lead & 0xE0) == 0xC0) {
+            return 2;
+        }
+        if ((lead & 0xF0) == 0xE0) {
+            return 3;
+        }
+        return (lead & 0xF8) == 0xF0 ? 4 : 0;
+    }
+
+    private static boolean isSingleWord(byte[] word, int length) {
+        if (length == 0) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (!isWordAt(word, length, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}